@@ -0,0 +1,184 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.stephengware.java.games.chess.state.Player;
+
+/**
+ * JMH benchmarks of the parts of MyBot the search spends its time in, over a fixed set of positions
+ *
+ * evaluate - the full evaluation of the root, potential factors included
+ * potentialFactor - getPotentialFactor() for every piece of the root
+ * reorderGameTree - sorting the evaluated children of the root, as after every iteration
+ * checkDrawState - the repetition check of every child of the root
+ * findMax - the whole search to a fixed depth, with MyBot.searchToDepth()
+ *
+ * The benchmarks are kept out of src, which is exported as the bot, and need the JMH jars:
+ * jmh-core, jmh-generator-annprocess and their dependencies, jopt-simple and commons-math3.
+ * Compile this folder together with src, with chess.jar and the JMH jars on the class path
+ * (javac runs the JMH annotation processor by itself), then run main() for ns/op
+ * and the allocation rate of the GC profiler:
+ *
+ * java -cp <classes>:chess.jar:<jmh jars> com.stephengware.java.games.chess.bot.BotBenchmark
+ *
+ * @author Hung L. Le
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BotBenchmark {
+
+	/** the positions, as the moves played to reach them from the start, see Perft.play() */
+	private static final String[][] POSITIONS = {
+		{ "opening", "e2e4 e7e5 g1f3 b8c6 f1c4 g8f6 d2d3 f8c5 c1g5 d7d6 b1c3 c8g4 d1d2 d8d7" },
+		{ "middlegame", "e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7 f1e1 b7b5 a4b3 d7d6 c2c3 e8g8 h2h3 c6a5 b3c2 c7c5 d2d4 d8c7" },
+		{ "tactics", "e2e4 d7d5 e4d5 d8d5 b1c3 d5a5 d2d4 g8f6 g1f3 c8f5 f1c4 e7e6 c1d2 c7c6" }
+	};
+
+	/** the name of the position benchmarked */
+	@Param({ "opening", "middlegame", "tactics" })
+	public String position;
+
+	/** the depth of the fixed depth search */
+	@Param({ "3" })
+	public int depth;
+
+	/** the searcher, with a budget that never runs out */
+	private MyBot bot;
+
+	/** the position benchmarked */
+	private com.stephengware.java.games.chess.state.State state;
+
+	/** the root of the tree, with every child expanded */
+	private GameTree root;
+
+	/** the children of the root, evaluated */
+	private List<GameTree> children;
+
+
+	/**
+	 * Play the position and set the bot up at its root, the way MyBot.search() does
+	 */
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		for ( String[] position : POSITIONS )
+		{
+			if ( position[0].equals(this.position) )
+				this.state = Perft.play(position[1]);
+		}
+		if ( this.state == null )
+			throw new IllegalArgumentException("no position named " + this.position);
+
+		this.bot = new MyBot(new TranspositionTable(20), new SearchBudget(Integer.MAX_VALUE));
+		this.bot.rootState = this.state;
+		this.bot.mySide = this.state.player;
+		this.bot.context.history.reset(this.state);
+
+		this.root = new GameTree(this.state, this.bot.budget);
+		this.bot.context.accumulator.reset(this.root.getBitboards(), this.bot.mySide);
+
+		// the children get the values of their evaluation, for reorderGameTree to sort
+		while ( this.root.hasNextChild() )
+		{
+			GameTree child = this.root.getNextChild();
+			this.bot.context.accumulator.push(this.root.getBitboards(), child.getBitboards());
+			child.value = this.bot.evaluate(child, true, this.bot.context);
+			this.bot.context.accumulator.pop();
+		}
+		this.children = new ArrayList<GameTree>(this.root.children);
+	}
+
+
+	@Benchmark
+	public double evaluate()
+	{
+		return this.bot.evaluate(this.root, true, this.bot.context);
+	}
+
+
+	@Benchmark
+	public double potentialFactor()
+	{
+		Bitboards boards = this.root.getBitboards();
+		Player toMove = this.state.player;
+
+		double total = 0.0;
+		for ( int code = 0; code < 12; code++ )
+		{
+			long set = boards.pieces[code];
+			while ( set != 0 )
+			{
+				int square = Long.numberOfTrailingZeros(set);
+				set &= set - 1;
+				total += this.bot.getPotentialFactor(toMove, boards, code, square);
+			}
+		}
+		return total;
+	}
+
+
+	@Benchmark
+	public GameTree reorderGameTree()
+	{
+		// reorderGameTree takes the children out of the list, they are put back first
+		this.root.children.clear();
+		this.root.children.addAll(this.children);
+		return this.root.reorderGameTree(this.bot.context.history);
+	}
+
+
+	@Benchmark
+	public void checkDrawState(Blackhole blackhole)
+	{
+		for ( GameTree child : this.children )
+		{
+			blackhole.consume(this.root.checkDrawState(child, this.bot.context.history));
+		}
+	}
+
+
+	@Benchmark
+	public GameTree findMax()
+	{
+		return this.bot.searchToDepth(this.state, this.depth);
+	}
+
+
+	/**
+	 * Run every benchmark of this class with the GC profiler
+	 *
+	 * @param args ignored
+	 * @throws RunnerException if a benchmark fails
+	 */
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder()
+				.include(BotBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,290 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Arrays;
+
+import com.stephengware.java.games.chess.state.Player;
+
+/**
+ * Precomputed attack tables: the set of squares a piece attacks from a given square
+ *
+ * Knights, Kings and Pawns attack the same squares whatever stands around them,
+ * so their attacks are simply looked up. The attacks of Bishops and Rooks depend on
+ * which squares block their rays; those are found with "magic bitboards": the blockers
+ * on the piece's rays are multiplied by a magic number, and the top bits of the product
+ * index a table holding the attacks for exactly that set of blockers.
+ * The magic numbers are searched once, with a fixed seed, when the class is loaded.
+ *
+ * @author Hung L. Le
+ */
+public final class Attacks {
+
+	/** squares attacked by a Knight on each square */
+	private static final long[] KNIGHT = new long[64];
+
+	/** squares attacked by a King on each square */
+	private static final long[] KING = new long[64];
+
+	/** squares attacked by a Pawn on each square, [0] for White and [1] for Black */
+	private static final long[][] PAWN = new long[2][64];
+
+	/** the squares whose occupancy matters to a Rook / Bishop on each square */
+	private static final long[] ROOK_MASK = new long[64];
+	private static final long[] BISHOP_MASK = new long[64];
+
+	/** the magic numbers of each square */
+	private static final long[] ROOK_MAGIC = new long[64];
+	private static final long[] BISHOP_MAGIC = new long[64];
+
+	/** how far the product is shifted to give the table index */
+	private static final int[] ROOK_SHIFT = new int[64];
+	private static final int[] BISHOP_SHIFT = new int[64];
+
+	/** the attack tables of each square, indexed by the magic index */
+	private static final long[][] ROOK_TABLE = new long[64][];
+	private static final long[][] BISHOP_TABLE = new long[64][];
+
+	/** ray directions as (file, rank) steps */
+	private static final int[][] ROOK_DIRECTIONS = { {1, 0}, {-1, 0}, {0, 1}, {0, -1} };
+	private static final int[][] BISHOP_DIRECTIONS = { {1, 1}, {1, -1}, {-1, 1}, {-1, -1} };
+	private static final int[][] KNIGHT_STEPS = { {1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2} };
+	private static final int[][] KING_STEPS = { {1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1} };
+
+	static
+	{
+		long seed = 0x2545F4914F6CDD1DL;
+
+		for ( int square = 0; square < 64; square++ )
+		{
+			int file = square & 7;
+			int rank = square >>> 3;
+
+			KNIGHT[square] = steps(file, rank, KNIGHT_STEPS);
+			KING[square] = steps(file, rank, KING_STEPS);
+			PAWN[0][square] = steps(file, rank, new int[][] { {-1, 1}, {1, 1} });
+			PAWN[1][square] = steps(file, rank, new int[][] { {-1, -1}, {1, -1} });
+
+			ROOK_MASK[square] = relevantMask(file, rank, ROOK_DIRECTIONS);
+			BISHOP_MASK[square] = relevantMask(file, rank, BISHOP_DIRECTIONS);
+
+			ROOK_SHIFT[square] = 64 - Long.bitCount(ROOK_MASK[square]);
+			BISHOP_SHIFT[square] = 64 - Long.bitCount(BISHOP_MASK[square]);
+
+			seed = findMagic(square, ROOK_MASK[square], ROOK_SHIFT[square], ROOK_DIRECTIONS, ROOK_MAGIC, ROOK_TABLE, seed);
+			seed = findMagic(square, BISHOP_MASK[square], BISHOP_SHIFT[square], BISHOP_DIRECTIONS, BISHOP_MAGIC, BISHOP_TABLE, seed);
+		}
+	}
+
+
+	private Attacks() {
+		// static methods only
+	}
+
+
+	/** @return the squares attacked by a Knight on the given square */
+	public static long knight(int square)
+	{
+		return KNIGHT[square];
+	}
+
+
+	/** @return the squares attacked by a King on the given square */
+	public static long king(int square)
+	{
+		return KING[square];
+	}
+
+
+	/** @return the squares attacked by the player's Pawn on the given square */
+	public static long pawn(Player player, int square)
+	{
+		return PAWN[player == Player.WHITE ? 0 : 1][square];
+	}
+
+
+	/** @return the squares attacked by a Rook on the given square, given the occupied squares */
+	public static long rook(int square, long occupied)
+	{
+		return ROOK_TABLE[square][(int) (((occupied & ROOK_MASK[square]) * ROOK_MAGIC[square]) >>> ROOK_SHIFT[square])];
+	}
+
+
+	/** @return the squares attacked by a Bishop on the given square, given the occupied squares */
+	public static long bishop(int square, long occupied)
+	{
+		return BISHOP_TABLE[square][(int) (((occupied & BISHOP_MASK[square]) * BISHOP_MAGIC[square]) >>> BISHOP_SHIFT[square])];
+	}
+
+
+	/** @return the squares attacked by a Queen on the given square, given the occupied squares */
+	public static long queen(int square, long occupied)
+	{
+		return rook(square, occupied) | bishop(square, occupied);
+	}
+
+
+	/**
+	 * Returns the squares attacked by any piece
+	 *
+	 * @param type - the piece type, as in Bitboards
+	 * @param player - the owner of the piece
+	 * @param square - the square the piece stands on
+	 * @param occupied - the occupied squares of the board
+	 * @return the attacked squares
+	 */
+	public static long of(int type, Player player, int square, long occupied)
+	{
+		switch ( type )
+		{
+			case Bitboards.PAWN:
+				return pawn(player, square);
+			case Bitboards.KNIGHT:
+				return KNIGHT[square];
+			case Bitboards.BISHOP:
+				return bishop(square, occupied);
+			case Bitboards.ROOK:
+				return rook(square, occupied);
+			case Bitboards.QUEEN:
+				return queen(square, occupied);
+			default:
+				return KING[square];
+		}
+	}
+
+
+	/**
+	 * the squares reached by single steps from a square, ignoring steps off the board
+	 */
+	private static long steps(int file, int rank, int[][] steps)
+	{
+		long attacks = 0L;
+		for ( int[] step : steps )
+		{
+			int f = file + step[0];
+			int r = rank + step[1];
+			if ( f >= 0 && f < 8 && r >= 0 && r < 8 )
+				attacks |= 1L << Move.square(f, r);
+		}
+		return attacks;
+	}
+
+
+	/**
+	 * the squares on the rays of a slider which may block it; the last square of
+	 * every ray is left out, since the attack reaches it whether it is occupied or not
+	 */
+	private static long relevantMask(int file, int rank, int[][] directions)
+	{
+		long mask = 0L;
+		for ( int[] direction : directions )
+		{
+			int f = file + direction[0];
+			int r = rank + direction[1];
+			while ( f + direction[0] >= 0 && f + direction[0] < 8 && r + direction[1] >= 0 && r + direction[1] < 8 )
+			{
+				mask |= 1L << Move.square(f, r);
+				f += direction[0];
+				r += direction[1];
+			}
+		}
+		return mask;
+	}
+
+
+	/**
+	 * the attacks of a slider found by walking its rays, used only to fill the tables
+	 */
+	private static long slidingAttacks(int square, long occupied, int[][] directions)
+	{
+		long attacks = 0L;
+		for ( int[] direction : directions )
+		{
+			int f = (square & 7) + direction[0];
+			int r = (square >>> 3) + direction[1];
+			while ( f >= 0 && f < 8 && r >= 0 && r < 8 )
+			{
+				long bit = 1L << Move.square(f, r);
+				attacks |= bit;
+				if ( (occupied & bit) != 0 )
+					break;
+				f += direction[0];
+				r += direction[1];
+			}
+		}
+		return attacks;
+	}
+
+
+	/**
+	 * Try random sparse numbers until one maps every blocker set of the square
+	 * to a table index without two different attack sets colliding, then fill the table
+	 *
+	 * @return the random seed to continue from
+	 */
+	private static long findMagic(int square, long mask, int shift, int[][] directions, long[] magics, long[][] tables, long seed)
+	{
+		int count = 1 << Long.bitCount(mask);
+		long[] blockers = new long[count];
+		long[] attacks = new long[count];
+
+		// enumerate every subset of the mask (carry-rippler)
+		long subset = 0L;
+		for ( int i = 0; i < count; i++ )
+		{
+			blockers[i] = subset;
+			attacks[i] = slidingAttacks(square, subset, directions);
+			subset = (subset - mask) & mask;
+		}
+
+		long[] table = new long[count];
+		boolean[] used = new boolean[count];
+
+		while ( true )
+		{
+			seed = nextRandom(seed);
+			long a = seed;
+			seed = nextRandom(seed);
+			long b = seed;
+			seed = nextRandom(seed);
+			long magic = a & b & seed;
+
+			// a good magic spreads the mask's bits into the top of the product
+			if ( Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6 )
+				continue;
+
+			Arrays.fill(used, false);
+			boolean collision = false;
+			for ( int i = 0; i < count && !collision; i++ )
+			{
+				int index = (int) ((blockers[i] * magic) >>> shift);
+				if ( !used[index] )
+				{
+					used[index] = true;
+					table[index] = attacks[i];
+				}
+				else if ( table[index] != attacks[i] )
+				{
+					collision = true;
+				}
+			}
+
+			if ( !collision )
+			{
+				magics[square] = magic;
+				tables[square] = table;
+				return seed;
+			}
+		}
+	}
+
+
+	/**
+	 * xorshift64 step, used only to search the magic numbers
+	 */
+	private static long nextRandom(long x)
+	{
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		return x;
+	}
+}
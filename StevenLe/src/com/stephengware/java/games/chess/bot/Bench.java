@@ -0,0 +1,73 @@
+package com.stephengware.java.games.chess.bot;
+
+import com.stephengware.java.games.chess.state.State;
+
+/**
+ * Searches a fixed list of positions to a fixed depth, without the game's GUI, and prints
+ * how many nodes the search visited and how fast.
+ *
+ * The search of a position starts with an empty table and no move ordering learned, on one thread
+ * with no clock, so the node count is the same on every run and every machine: it changes only
+ * when the search itself does, and is a signature of its behaviour. The time and the nodes
+ * per second measure how fast the search runs.
+ *
+ * The nodes are the states the search generates and the positions of its quiescence search.
+ *
+ * usage: Bench [depth], 4 by default
+ *
+ * @author Hung L. Le
+ */
+public class Bench {
+
+	/** the positions, as the moves played to reach them from the start, see Perft.play() */
+	private static final String[][] POSITIONS = {
+		{ "start", "" },
+		{ "italian", "e2e4 e7e5 g1f3 b8c6 f1c4 g8f6 d2d3 f8c5 c1g5 d7d6 b1c3 c8g4 d1d2 d8d7" },
+		{ "ruy lopez", "e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7 f1e1 b7b5 a4b3 d7d6 c2c3 e8g8 h2h3 c6a5 b3c2 c7c5 d2d4 d8c7" },
+		{ "scandinavian", "e2e4 d7d5 e4d5 d8d5 b1c3 d5a5 d2d4 g8f6 g1f3 c8f5 f1c4 e7e6 c1d2 c7c6" },
+		{ "fianchetto", "g1f3 b7b6 g2g3 c8a6 f1g2 e7e6 e2e4 g8e7 b1c3 e7g6" },
+		{ "en passant", "e2e4 a7a6 e4e5 d7d5 h2h4 a6a5 h4h5 g7g5" },
+		{ "promotions", "b2b4 a7a5 b4a5 b7b5 a5a6 b5b4 a6a7 b4b3" },
+		{ "check", "e2e4 d7d5 f1b5" }
+	};
+
+
+	/**
+	 * Search every position and print the nodes, the time and the nodes per second
+	 *
+	 * @param args - the depth, 4 if none is given
+	 */
+	public static void main(String[] args)
+	{
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		if ( depth < 1 )
+			throw new IllegalArgumentException("the depth must be at least 1");
+
+		// the budget never runs out, only the depth ends the search
+		SearchBudget budget = new SearchBudget(Integer.MAX_VALUE);
+		MyBot bot = new MyBot(new TranspositionTable(20), budget);
+
+		long totalNodes = 0;
+		long totalTime = 0;
+		for ( String[] position : POSITIONS )
+		{
+			State state = Perft.play(position[1]);
+
+			long start = System.nanoTime();
+			GameTree chosen = bot.searchToDepth(state, depth);
+			long elapsed = System.nanoTime() - start;
+
+			long nodes = (long)budget.used() + budget.quiescence();
+			System.out.println(String.format("%-14s depth %d  %-6s %,12d nodes %,8d ms",
+					position[0], depth, Perft.name(chosen.getMove()), nodes, elapsed / 1000000));
+
+			totalNodes += nodes;
+			totalTime += elapsed;
+		}
+
+		System.out.println();
+		System.out.println(String.format("Total time (ms) : %d", totalTime / 1000000));
+		System.out.println(String.format("Nodes searched  : %d", totalNodes));
+		System.out.println(String.format("Nodes/second    : %d", totalTime == 0 ? 0 : totalNodes * 1000000000L / totalTime));
+	}
+}
@@ -0,0 +1,302 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Iterator;
+
+import com.stephengware.java.games.chess.state.Bishop;
+import com.stephengware.java.games.chess.state.King;
+import com.stephengware.java.games.chess.state.Knight;
+import com.stephengware.java.games.chess.state.Pawn;
+import com.stephengware.java.games.chess.state.Piece;
+import com.stephengware.java.games.chess.state.Player;
+import com.stephengware.java.games.chess.state.Queen;
+import com.stephengware.java.games.chess.state.State;
+
+/**
+ * A bitboard representation of a state's board: one 64 bit set per piece code,
+ * where bit (rank * 8 + file) is set when such a piece stands on that square.
+ * Questions like "is this square occupied" or "how many White pawns are there"
+ * become a few bit operations instead of a walk over the Piece objects.
+ *
+ * pieces - the twelve piece sets, indexed by piece code
+ * white, black, occupied - the squares occupied by White, Black and either side
+ * unmoved - the squares whose piece has never moved since the start of the game, as the game
+ *           counts it: see afterCapture() for the Rooks
+ *
+ * The bitboards of a state never change once built. Only the copy a Position holds
+ * is changed in place, as the moves are made and unmade.
+ *
+ * @author Hung L. Le
+ */
+public final class Bitboards {
+
+	/** piece types, the piece code of a Black piece is its type + 6 */
+	public static final int PAWN = 0;
+	public static final int KNIGHT = 1;
+	public static final int BISHOP = 2;
+	public static final int ROOK = 3;
+	public static final int QUEEN = 4;
+	public static final int KING = 5;
+
+	/** the code of the first Black piece */
+	public static final int BLACK_OFFSET = 6;
+
+	/** the piece sets, indexed by piece code */
+	public final long[] pieces = new long[12];
+
+	/** the squares occupied by White pieces */
+	public long white;
+
+	/** the squares occupied by Black pieces */
+	public long black;
+
+	/** the squares occupied by any piece */
+	public long occupied;
+
+	/** the squares whose piece has never moved */
+	public long unmoved;
+
+
+	/**
+	 * Constructs the bitboards of an empty board, for a Position to copy into
+	 */
+	public Bitboards() {
+	}
+
+
+	/**
+	 * Build the bitboards of a state
+	 *
+	 * @param state - the state to represent
+	 * @param previous - the bitboards of the previous state, null if they are not known
+	 */
+	public Bitboards(State state, Bitboards previous) {
+
+		long white = 0L;
+		long black = 0L;
+
+		Iterator<Piece> iterator = state.board.iterator();
+		while ( iterator.hasNext() )
+		{
+			Piece piece = iterator.next();
+			long bit = 1L << Move.square(piece.file, piece.rank);
+
+			this.pieces[pieceCode(piece)] |= bit;
+
+			if ( piece.player == Player.WHITE )
+				white |= bit;
+			else
+				black |= bit;
+		}
+
+		this.white = white;
+		this.black = black;
+		this.occupied = white | black;
+
+		/**
+		 * a square stays unmoved until a move changes what stands on it
+		 * without the previous bitboards, ask the board about every piece
+		 */
+		if ( previous != null )
+		{
+			long changed = 0L;
+			for ( int code = 0; code < 12; code++ )
+			{
+				changed |= this.pieces[code] ^ previous.pieces[code];
+			}
+			this.unmoved = previous.unmoved & ~changed;
+
+			// the player to move is the one who may have lost a piece
+			long lost = previous.occupiedBy(state.player) & ~this.occupiedBy(state.player);
+			if ( lost != 0 )
+				this.unmoved = afterCapture(this.unmoved, previous.pieceAt(Long.numberOfTrailingZeros(lost)));
+		}
+		else
+		{
+			long unmoved = 0L;
+			iterator = state.board.iterator();
+			while ( iterator.hasNext() )
+			{
+				Piece piece = iterator.next();
+				if ( !state.board.hasMoved(piece) )
+					unmoved |= 1L << Move.square(piece.file, piece.rank);
+			}
+			this.unmoved = unmoved;
+		}
+	}
+
+
+	/**
+	 * Make these bitboards the same as others, without allocating anything
+	 *
+	 * @param other - the bitboards to copy
+	 */
+	public void copy(Bitboards other)
+	{
+		System.arraycopy(other.pieces, 0, this.pieces, 0, this.pieces.length);
+		this.white = other.white;
+		this.black = other.black;
+		this.occupied = other.occupied;
+		this.unmoved = other.unmoved;
+	}
+
+
+	/**
+	 * Put a piece on a square, or take it off if it stands there: doing it twice changes nothing
+	 * the unmoved squares are left to the caller
+	 *
+	 * @param code - the piece code
+	 * @param square - the square
+	 */
+	public void toggle(int code, int square)
+	{
+		long bit = 1L << square;
+
+		this.pieces[code] ^= bit;
+		if ( code < BLACK_OFFSET )
+			this.white ^= bit;
+		else
+			this.black ^= bit;
+		this.occupied = this.white | this.black;
+	}
+
+
+	/**
+	 * Returns the code of the piece on a square
+	 *
+	 * @param square
+	 * @return the piece code, or -1 if the square is empty
+	 */
+	public int pieceAt(int square)
+	{
+		long bit = 1L << square;
+
+		if ( (this.occupied & bit) == 0 )
+			return -1;
+
+		for ( int code = 0; code < 12; code++ )
+		{
+			if ( (this.pieces[code] & bit) != 0 )
+				return code;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Same as Board.pieceAt(file, rank): false for squares outside the board
+	 *
+	 * @param file
+	 * @param rank
+	 * @return true if a piece stands on this square
+	 */
+	public boolean isOccupied(int file, int rank)
+	{
+		return file >= 0 && file < 8 && rank >= 0 && rank < 8
+				&& (this.occupied & (1L << Move.square(file, rank))) != 0;
+	}
+
+
+	/**
+	 * @param player
+	 * @return the squares occupied by the player's pieces
+	 */
+	public long occupiedBy(Player player)
+	{
+		return player == Player.WHITE ? this.white : this.black;
+	}
+
+
+	/**
+	 * @param player
+	 * @return the square of the player's king, or -1 if it has been captured
+	 */
+	public int kingSquare(Player player)
+	{
+		long king = this.pieces[pieceCode(KING, player)];
+		return king == 0 ? -1 : Long.numberOfTrailingZeros(king);
+	}
+
+
+	/**
+	 * The game keeps its pieces in an array, in the order they are set up: the Kings, White's pieces
+	 * from a1 to h1, White's pawns, Black's pawns, then Black's pieces from a8 to h8. A captured piece
+	 * leaves no gap, the pieces after it move up one place, and a piece whose place held another piece
+	 * in an earlier board counts as moved. So a capture takes the castling away from every Rook set up
+	 * after the captured piece...
+	 * a1 - never, only the Kings come before it
+	 * h1 - when one of White's pieces is captured, pawns aside
+	 * a8 - when a pawn or a White piece is captured
+	 * h8 - whatever is captured
+	 * A piece promoted from a pawn takes the pawn's place, but is taken here for one that was set up.
+	 *
+	 * @param unmoved - the unmoved squares once the capture is made
+	 * @param victim - the code of the captured piece
+	 * @return the unmoved squares, without the Rooks that can no longer castle
+	 */
+	public static long afterCapture(long unmoved, int victim)
+	{
+		if ( victim < BLACK_OFFSET && victim != PAWN )
+			unmoved &= ~(1L << Move.square(7, 0));
+		if ( victim < BLACK_OFFSET || victim == pieceCode(PAWN, Player.BLACK) )
+			unmoved &= ~(1L << Move.square(0, 7));
+		return unmoved & ~(1L << Move.square(7, 7));
+	}
+
+
+	/**
+	 * @param code - a piece code
+	 * @return the type of the piece: PAWN, KNIGHT, BISHOP, ROOK, QUEEN or KING
+	 */
+	public static int type(int code)
+	{
+		return code < BLACK_OFFSET ? code : code - BLACK_OFFSET;
+	}
+
+
+	/**
+	 * @param code - a piece code
+	 * @return the player who owns the piece
+	 */
+	public static Player player(int code)
+	{
+		return code < BLACK_OFFSET ? Player.WHITE : Player.BLACK;
+	}
+
+
+	/**
+	 * @param type - the piece type
+	 * @param player - the owner of the piece
+	 * @return the piece code
+	 */
+	public static int pieceCode(int type, Player player)
+	{
+		return player == Player.WHITE ? type : type + BLACK_OFFSET;
+	}
+
+
+	/**
+	 * Returns the code of a piece: 0 - 5 for White's Pawn, Knight, Bishop, Rook, Queen, King
+	 * and 6 - 11 for the same Black pieces
+	 *
+	 * @param piece
+	 * @return the code of the piece
+	 */
+	public static int pieceCode(Piece piece)
+	{
+		int type;
+		if ( piece instanceof Pawn )
+			type = PAWN;
+		else if ( piece instanceof Knight )
+			type = KNIGHT;
+		else if ( piece instanceof Bishop )
+			type = BISHOP;
+		else if ( piece instanceof Queen )
+			type = QUEEN;
+		else if ( piece instanceof King )
+			type = KING;
+		else
+			type = ROOK;
+
+		return pieceCode(type, piece.player);
+	}
+}
@@ -0,0 +1,249 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Arrays;
+
+import com.stephengware.java.games.chess.state.Player;
+
+/**
+ * Keeps the material and piece-square sums of the positions on the path being searched
+ *
+ * A child differs from its parent by one move, i.e. by a few pieces appearing or
+ * disappearing from squares. Instead of summing every piece at every leaf, the sums of
+ * the parent are copied and corrected by these few pieces when the search descends,
+ * and simply dropped when it returns.
+ *
+ * material - material score of the bot's pieces minus the opponent's
+ * middlegame, endgame - piece-square sums of the bot's pieces, blended by the phase at the leaf
+ *
+ * @author Hung L. Le
+ */
+public class EvalAccumulator {
+
+	/** material score of each piece type: Pawn, Knight, Bishop, Rook, Queen, King */
+	public static final int[] MATERIAL = { 10, 30, 30, 50, 90, 100 };
+
+	/** the sums of every ply on the path, the root is ply 0 */
+	private int[] material = new int[32];
+	private int[] middlegame = new int[32];
+	private int[] endgame = new int[32];
+
+	/** the ply of the position at the top of the path */
+	private int ply = 0;
+
+	/** the side whose point of view is taken */
+	private Player mySide;
+
+
+	/**
+	 * Constructs an empty accumulator, reset() must be called before use
+	 */
+	public EvalAccumulator() {
+	}
+
+
+	/**
+	 * Constructs a copy of another accumulator, for a search continuing on another thread
+	 *
+	 * @param other - the accumulator to copy
+	 */
+	public EvalAccumulator(EvalAccumulator other) {
+		this.material = Arrays.copyOf(other.material, other.material.length);
+		this.middlegame = Arrays.copyOf(other.middlegame, other.middlegame.length);
+		this.endgame = Arrays.copyOf(other.endgame, other.endgame.length);
+		this.ply = other.ply;
+		this.mySide = other.mySide;
+	}
+
+
+	/**
+	 * Start a new path at the root of the search, computing its sums from scratch
+	 *
+	 * @param boards - the bitboards of the root
+	 * @param mySide - the side of the bot
+	 */
+	public void reset(Bitboards boards, Player mySide)
+	{
+		this.mySide = mySide;
+		this.ply = 0;
+		this.material[0] = 0;
+		this.middlegame[0] = 0;
+		this.endgame[0] = 0;
+
+		for ( int code = 0; code < 12; code++ )
+		{
+			long set = boards.pieces[code];
+			while ( set != 0 )
+			{
+				this.add(code, Long.numberOfTrailingZeros(set));
+				set &= set - 1;
+			}
+		}
+	}
+
+
+	/**
+	 * Descend from a position to one of its children
+	 *
+	 * @param parent - the bitboards of the position at the top of the path
+	 * @param child - the bitboards of the child
+	 */
+	public void push(Bitboards parent, Bitboards child)
+	{
+		this.descend();
+
+		// only the squares whose contents changed are looked at
+		for ( int code = 0; code < 12; code++ )
+		{
+			long changed = parent.pieces[code] ^ child.pieces[code];
+			while ( changed != 0 )
+			{
+				int square = Long.numberOfTrailingZeros(changed);
+				changed &= changed - 1;
+
+				if ( (child.pieces[code] & (1L << square)) != 0 )
+					this.add(code, square);
+				else
+					this.remove(code, square);
+			}
+		}
+	}
+
+
+	/**
+	 * Descend from a position to the child reached by a move, before the move is made
+	 * same as push(parent, child), for a Position whose child has no bitboards of its own
+	 *
+	 * @param parent - the bitboards of the position at the top of the path
+	 * @param move - the packed move
+	 */
+	public void push(Bitboards parent, int move)
+	{
+		this.descend();
+
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int code = parent.pieceAt(from);
+		int victim = parent.pieceAt(to);
+
+		if ( Bitboards.type(code) == Bitboards.KING && Math.abs((to & 7) - (from & 7)) == 2 )
+		{
+			// castling, the Rook moves too
+			int rook = Move.castlingRook(move);
+			int rookCode = parent.pieceAt(Move.from(rook));
+			this.remove(rookCode, Move.from(rook));
+			this.add(rookCode, Move.to(rook));
+		}
+
+		this.remove(code, from);
+		if ( victim >= 0 )
+			this.remove(victim, to);
+		else if ( Bitboards.type(code) == Bitboards.PAWN && (from & 7) != (to & 7) )
+			this.remove(parent.pieceAt(Move.square(to & 7, from >>> 3)), Move.square(to & 7, from >>> 3)); // en passant
+
+		// the promotion codes are the piece types
+		this.add(Move.promotion(move) == Move.NONE ? code : Bitboards.pieceCode(Move.promotion(move), Bitboards.player(code)), to);
+	}
+
+
+	/**
+	 * Return to the parent of the position at the top of the path
+	 */
+	public void pop()
+	{
+		this.ply--;
+	}
+
+
+	/**
+	 * @return the material score of the position at the top of the path
+	 */
+	public int material()
+	{
+		return this.material[this.ply];
+	}
+
+
+	/**
+	 * @param phase - the phase of the position, see PieceSquareTables.phase()
+	 * @return the positional value of the bot's pieces in the position at the top of the path
+	 */
+	public double positional(int phase)
+	{
+		return PieceSquareTables.blend(this.middlegame[this.ply], this.endgame[this.ply], phase);
+	}
+
+
+	/**
+	 * Check the sums at the top of the path against sums computed from scratch
+	 *
+	 * @param boards - the bitboards the top of the path is supposed to hold
+	 * @throws IllegalStateException if the sums differ
+	 */
+	public void verify(Bitboards boards)
+	{
+		EvalAccumulator fresh = new EvalAccumulator();
+		fresh.reset(boards, this.mySide);
+
+		if ( fresh.material() != this.material() || fresh.middlegame[0] != this.middlegame[this.ply]
+				|| fresh.endgame[0] != this.endgame[this.ply] )
+		{
+			throw new IllegalStateException("Incremental evaluation differs from a full evaluation at ply " + this.ply);
+		}
+	}
+
+
+	/**
+	 * start the sums of the next ply from the sums of the top of the path
+	 */
+	private void descend()
+	{
+		if ( this.ply + 1 == this.material.length )
+		{
+			int length = this.material.length * 2;
+			this.material = Arrays.copyOf(this.material, length);
+			this.middlegame = Arrays.copyOf(this.middlegame, length);
+			this.endgame = Arrays.copyOf(this.endgame, length);
+		}
+
+		this.material[this.ply + 1] = this.material[this.ply];
+		this.middlegame[this.ply + 1] = this.middlegame[this.ply];
+		this.endgame[this.ply + 1] = this.endgame[this.ply];
+		this.ply++;
+	}
+
+
+	/**
+	 * count a piece appearing on a square
+	 */
+	private void add(int code, int square)
+	{
+		if ( Bitboards.player(code) == this.mySide )
+		{
+			this.material[this.ply] += MATERIAL[Bitboards.type(code)];
+			this.middlegame[this.ply] += PieceSquareTables.middlegame(code, square);
+			this.endgame[this.ply] += PieceSquareTables.endgame(code, square);
+		}
+		else
+		{
+			this.material[this.ply] -= MATERIAL[Bitboards.type(code)];
+		}
+	}
+
+
+	/**
+	 * count a piece disappearing from a square
+	 */
+	private void remove(int code, int square)
+	{
+		if ( Bitboards.player(code) == this.mySide )
+		{
+			this.material[this.ply] -= MATERIAL[Bitboards.type(code)];
+			this.middlegame[this.ply] -= PieceSquareTables.middlegame(code, square);
+			this.endgame[this.ply] -= PieceSquareTables.endgame(code, square);
+		}
+		else
+		{
+			this.material[this.ply] += MATERIAL[Bitboards.type(code)];
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package com.stephengware.java.games.chess.bot;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.stephengware.java.games.chess.state.Player;
 import com.stephengware.java.games.chess.state.State;
 
 /**
@@ -10,10 +13,20 @@ import com.stephengware.java.games.chess.state.State;
  * 
  * state - the state it represents
  * parent - the previous state
- * children - the list of all of its children
- * nextStates - the iterator of all of its next states
+ * children - the list of all of its children, kept at the root only
+ * level - the distance from the root
+ * nextStates - the iterator of all of its next states, created when the first child is needed
  * value - the evaluated value of the state
- * stateName - the string representation of the state
+ * bitboards - the bitboard representation of the state, built once and cached
+ * hash - the Zobrist hash of the state
+ * enPassantFile - the file a Pawn can be taken en passant on, for the transposition table
+ * hashChild - the child reached by the best move remembered in the transposition table
+ * move - the move that led from the parent to this state
+ * moves - the moves of the state, expanded in the order of their scores instead of nextStates,
+ *         listed in stages: the captures, the killer moves, the quiet moves, the losing captures,
+ *         in the arrays of the node's level in a MoveStack
+ * budget - the search budget every generated state is charged to
+ * boardLock - keeps the boards of the tree from being read while the game changes one, see takeNextChild
  * 
  * @author Hung L. Le
  */
@@ -27,17 +40,99 @@ public class GameTree {
 	/** The parent node of this tree (i.e. the state before this state) */
 	public final GameTree parent;
 	
-	/** This node's children nodes (i.e. all possible next states) */
-	public final ArrayList<GameTree> children = new ArrayList<>();
+	/** This node's children nodes (i.e. all possible next states), only the root keeps them, null for the other nodes */
+	public final ArrayList<GameTree> children;
+	
+	/** The number of moves from the root to this node */
+	private final int level;
+	
+	/** An iterator of the next possible states, null until the first child is needed */
+	private Iterator<State> nextStates = null;
+	
+	/** true while nextStates generates new states, false once it iterates over existing ones */
+	private boolean generating = true;
+	
+	/** The budget every generated state is charged to, shared by the whole tree */
+	private final SearchBudget budget;
+	
+	/**
+	 * The game changes the board of a state in place while it makes the next states, and making a state
+	 * reads the boards of all the states before it. So a state is only made under the read lock,
+	 * shared by the whole tree, and the children of a node split between threads under the write lock
+	 */
+	private final ReentrantReadWriteLock boardLock;
+	
+	/** The number of children returned by getNextChild so far */
+	private int childCount = 0;
 	
-	/** An iterator of the next possible states */
-	private Iterator<State> nextStates;
+	/** The position of this node among the children of its parent, 1 for the first one expanded */
+	private int moveNumber = 0;
 	
 	/** The utility value of this state (i.e. how desirable it is for the player) */
 	public double value = 0.0f;
 	
-	/** The string representation of the node */
-	public String stateName;
+	/** The bitboards of the state, built the first time they are needed */
+	private Bitboards bitboards = null;
+	
+	/** The Zobrist hash of the state, computed the first time it is needed */
+	private long hash;
+	
+	/** true once the hash has been computed */
+	private boolean hashed = false;
+	
+	/** The file a Pawn can be taken en passant on, -1 if there is none, -2 until it is computed */
+	private int enPassantFile = -2;
+	
+	/** The child reached by the hash move, it is expanded before all other children */
+	private GameTree hashChild = null;
+	
+	/** true once the hash child has been returned by getNextChild */
+	private boolean hashChildExpanded = false;
+	
+	/** The next state to be returned by getNextChild, already checked not to be the hash child */
+	private State pendingState = null;
+	
+	/** The move that led from the parent to this state, Move.NULL until it is known */
+	private int move = Move.NULL;
+	
+	/** The move of the hash child, skipped when it comes up in the move list */
+	private int hashMove = Move.NULL;
+	
+	/** the stages of the move list, each one is listed once the moves of the one before are used up */
+	private static final int SINGLE_LIST = 0;	// the whole list is made at once, no further stage
+	private static final int CAPTURES = 1;	// the captures and promotions which do not lose material
+	private static final int KILLERS = 2;	// the killer moves of the ply, if they are legal here
+	private static final int QUIET_MOVES = 3;	// the other moves, but the losing captures
+	private static final int LOSING_CAPTURES = 4;	// the captures which lose material to the recaptures
+	
+	/** The moves of the current stage and their ordering scores, null unless orderChildren has been called */
+	private int[] moves = null;
+	private int[] moveScores = null;
+	private int moveCount = 0;
+	
+	/** The stage of the move list, SINGLE_LIST once there is no stage left */
+	private int stage = SINGLE_LIST;
+	
+	/** The ordering tables and the ply the moves are ordered with, null unless orderChildren has been called */
+	private MoveOrdering ordering = null;
+	private int ply = 0;
+	
+	/** The captures put aside for the last stage, in the array of the MoveStack */
+	private int[] losingCaptures = null;
+	private int losingCaptureCount = 0;
+	
+	/** The killer moves searched in their own stage, skipped among the quiet moves */
+	private int killer = Move.NULL;
+	private int secondKiller = Move.NULL;
+	
+	/** The number of moves already taken from the move list */
+	private int moveIndex = 0;
+	
+	/** The move of pendingState, Move.NULL when it came from nextStates */
+	private int pendingMove = Move.NULL;
+	
+	/** true once the quiet moves that give no check are to be skipped, see skipQuietMoves */
+	private boolean quietMovesSkipped = false;
 		
 	/**
 	 * Constructs a new game tree with some initial state as the parent.
@@ -45,7 +140,23 @@ public class GameTree {
 	 * @param initial the initial state of the game
 	 */
 	public GameTree(State initial) {
-		this(initial, null);
+		this(initial, new SearchBudget());
+	}
+	
+	/**
+	 * Constructs a new game tree with some initial state as the parent,
+	 * which charges every state it generates to a given budget.
+	 * 
+	 * @param initial the initial state of the game
+	 * @param budget the search budget of this move
+	 */
+	public GameTree(State initial, SearchBudget budget) {
+		this.state = initial;
+		this.parent = null;
+		this.budget = budget;
+		this.boardLock = new ReentrantReadWriteLock();
+		this.children = new ArrayList<>();
+		this.level = 0;
 	}
 	
 	/**
@@ -56,10 +167,25 @@ public class GameTree {
 	 * @param parent the parent node (i.e. the previous state)
 	 */
 	protected GameTree(State state, GameTree parent) {
+		this(state, parent, Move.NULL);
+	}
+	
+	/**
+	 * Constructs a new game tree with a current state that resulted from
+	 * taking a known move.
+	 * 
+	 * @param state the state of the game after making that move
+	 * @param parent the parent node (i.e. the previous state)
+	 * @param move the packed move, Move.NULL if it is not known
+	 */
+	protected GameTree(State state, GameTree parent, int move) {
 		this.state = state;
 		this.parent = parent;
-		this.nextStates = state.next().iterator();
-		this.stateName = null;
+		this.budget = parent.budget;
+		this.boardLock = parent.boardLock;
+		this.move = move;
+		this.children = null;
+		this.level = parent.level + 1;
 	}
 	
 	/**
@@ -78,7 +204,86 @@ public class GameTree {
 	 * @return true if there are more children nodes to add, false otherwise
 	 */
 	public boolean hasNextChild() {
-		return nextStates.hasNext();
+		
+		Lock lock = this.boardLock.readLock();
+		lock.lock();
+		try
+		{
+			return this.findNextChild();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Make the state of the next child, unless it is already made
+	 * 
+	 * @return true if there are more children nodes to add, false otherwise
+	 */
+	private boolean findNextChild() {
+		
+		if ( this.hashChild != null && !this.hashChildExpanded )
+		{
+			return true;
+		}
+		
+		// the moves were ordered, make the state of the best one left
+		if ( this.moves != null )
+		{
+			while ( this.pendingState == null && this.hasMoveLeft() )
+			{
+				int move = this.nextMove();
+				
+				// skip the move that was already expanded as the hash child
+				if ( move == this.hashMove )
+				{
+					continue;
+				}
+				
+				// skip the quiet moves once they are known to be futile, before their states are made
+				if ( this.quietMovesSkipped && !MoveGenerator.isTactical(this.getBitboards(), move)
+						&& !MoveGenerator.givesCheck(this.getBitboards(), this.state.player, move) )
+				{
+					continue;
+				}
+				
+				// null for the moves the game does not allow, no state is generated for them
+				State state = Move.toState(this.state, move, this.budget);
+				if ( state != null )
+				{
+					this.pendingState = state;
+					this.pendingMove = move;
+				}
+			}
+			
+			return this.pendingState != null;
+		}
+		
+		// generate the next states only when they are first needed, leaves never need them
+		if ( nextStates == null )
+		{
+			nextStates = state.next().iterator();
+		}
+		
+		// skip the state that was already expanded as the hash child
+		while ( this.pendingState == null && nextStates.hasNext() )
+		{
+			State state = nextStates.next();
+			
+			if ( this.generating )
+			{
+				this.budget.charge();
+			}
+			
+			if ( this.hashChild == null || !state.board.equals(this.hashChild.state.board) )
+			{
+				this.pendingState = state;
+			}
+		}
+		
+		return this.pendingState != null;
 	}
 	
 	/**
@@ -87,16 +292,439 @@ public class GameTree {
 	 * @return the next child node
 	 */
 	public GameTree getNextChild() {
-		State state = nextStates.next();
 		
-		GameTree child = new GameTree(state, this );
+		// the hash child always comes first
+		if ( this.hashChild != null && !this.hashChildExpanded )
+		{
+			this.hashChildExpanded = true;
+			if ( this.parent == null ) // this is the root node
+			{
+				children.add(this.hashChild);
+			}
+			this.hashChild.moveNumber = ++this.childCount;
+			return this.hashChild;
+		}
+		
+		this.hasNextChild();
+		State state = this.pendingState;
+		this.pendingState = null;
+		
+		GameTree child = new GameTree(state, this, this.pendingMove);
+		this.pendingMove = Move.NULL;
 		if ( this.parent == null) // this is the root node
 		{
 			children.add(child);
 		}
+		child.moveNumber = ++this.childCount;
 		return child;
 	}
 	
+	/**
+	 * Take the next child of a node whose children are searched by several threads at once
+	 * the children are made one at a time, as the threads ask for them, so a node cut off
+	 * early makes few of them. While the game makes one, no other state of the tree is made,
+	 * since the searches of the children already taken read the board of this node.
+	 * 
+	 * @return the next child node, null once there is none left
+	 */
+	public GameTree takeNextChild() {
+		
+		Lock lock = this.boardLock.writeLock();
+		lock.lock();
+		try
+		{
+			return this.hasNextChild() ? this.getNextChild() : null;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the position of this node among the children of its parent, in the order they were expanded
+	 * 
+	 * @return 1 for the first child expanded, 0 for the root and the null move child
+	 */
+	public int getMoveNumber() {
+		return this.moveNumber;
+	}
+	
+	/**
+	 * Returns the number of moves from the root to this node
+	 * 
+	 * @return 0 for the root
+	 */
+	public int getLevel() {
+		return this.level;
+	}
+	
+	/**
+	 * Returns the bitboards of this tree's state
+	 * they are built from the parent's bitboards, so the pieces that have not moved are known cheaply
+	 * 
+	 * @return the bitboards of the state
+	 */
+	public Bitboards getBitboards() {
+		if ( this.bitboards == null )
+		{
+			this.bitboards = new Bitboards(this.state, this.parent == null ? null : this.parent.getBitboards());
+		}
+		return this.bitboards;
+	}
+	
+	
+	/**
+	 * Returns the bitboards of the state before this tree's state
+	 * 
+	 * @return the bitboards of the previous state, null if this is the first state of the game
+	 */
+	public Bitboards getPreviousBitboards() {
+		if ( this.parent != null )
+		{
+			return this.parent.getBitboards();
+		}
+		return this.state.previous == null ? null : new Bitboards(this.state.previous, null);
+	}
+	
+	
+	/**
+	 * Returns the Zobrist hash of this tree's state
+	 * 
+	 * @return the 64 bit hash of the board and the side to move
+	 */
+	public long getHash() {
+		if ( !this.hashed )
+		{
+			this.hash = Zobrist.hash(this.getBitboards(), this.state.player);
+			this.hashed = true;
+		}
+		return this.hash;
+	}
+	
+	
+	/**
+	 * Returns the hash of this tree's board alone, used to detect repetitions
+	 * 
+	 * @return the 64 bit hash of the board
+	 */
+	public long getBoardHash() {
+		return RepetitionHistory.boardHash(this.getHash(), this.state);
+	}
+	
+	
+	/**
+	 * Returns whether the move that led to this state can never be undone: a capture or a Pawn's move
+	 * no position before such a move can occur again
+	 * 
+	 * @return true if the move was a capture or a Pawn's move, or there is no previous state
+	 */
+	public boolean isIrreversible() {
+		Bitboards previous = this.getPreviousBitboards();
+		if ( previous == null || this.state.movesUntilDraw == 100 )
+		{
+			return true;
+		}
+		Bitboards boards = this.getBitboards();
+		int whitePawns = Bitboards.pieceCode(Bitboards.PAWN, Player.WHITE);
+		int blackPawns = Bitboards.pieceCode(Bitboards.PAWN, Player.BLACK);
+		return boards.pieces[whitePawns] != previous.pieces[whitePawns] || boards.pieces[blackPawns] != previous.pieces[blackPawns];
+	}
+	
+	
+	/**
+	 * Returns the file a Pawn can be taken en passant on: the last move took a Pawn
+	 * two squares forward, next to a Pawn of the player to move
+	 * 
+	 * @return the file, -1 if no Pawn can be taken en passant
+	 */
+	public int getEnPassantFile() {
+		if ( this.enPassantFile == -2 )
+		{
+			int file = -1;
+			Bitboards previous = this.getPreviousBitboards();
+			if ( previous != null )
+			{
+				Bitboards boards = this.getBitboards();
+				Player mover = this.state.player.other();
+				int pawn = Bitboards.pieceCode(Bitboards.PAWN, mover);
+				int from = mover == Player.WHITE ? 1 : 6;
+				int to = mover == Player.WHITE ? 3 : 4;
+				long arrived = boards.pieces[pawn] & ~previous.pieces[pawn];
+				if ( Long.bitCount(arrived) == 1 )
+				{
+					int square = Long.numberOfTrailingZeros(arrived);
+					int f = square & 7;
+					long takers = boards.pieces[Bitboards.pieceCode(Bitboards.PAWN, this.state.player)];
+					long start = 1L << Move.square(f, from);
+					if ( square >>> 3 == to && (previous.pieces[pawn] & ~boards.pieces[pawn] & start) != 0
+							&& ((f > 0 && (takers & (1L << (square - 1))) != 0) || (f < 7 && (takers & (1L << (square + 1))) != 0)) )
+					{
+						file = f;
+					}
+				}
+			}
+			this.enPassantFile = file;
+		}
+		return this.enPassantFile;
+	}
+	
+	
+	/**
+	 * Set the move to be expanded before all other children, usually the best move
+	 * remembered in the transposition table.
+	 * Nothing happens if the move is not legal in this state, nor once reorderGameTree
+	 * has put the children in order.
+	 * 
+	 * @param move - the packed move
+	 */
+	public void setHashMove( int move ) {
+		
+		if ( move == Move.NULL || this.hashChild != null || !this.generating )
+		{
+			return;
+		}
+		
+		State state;
+		Lock lock = this.boardLock.readLock();
+		lock.lock();
+		try
+		{
+			state = Move.toState(this.state, move, this.budget);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		
+		if ( state != null )
+		{
+			this.hashChild = new GameTree(state, this, move);
+			this.hashMove = move;
+		}
+	}
+	
+	
+	/**
+	 * List the moves of this state and score them, so that the children are expanded
+	 * best first instead of in the order the game generates them.
+	 * The moves are listed in stages, a node cut off by a capture never lists its quiet moves:
+	 * the captures which do not lose material, most valuable victim first, then the killer moves,
+	 * then the other quiet moves by history, and the captures which lose material last.
+	 * Nothing happens at the root, whose children are ordered by reorderGameTree,
+	 * nor once the moves have been ordered.
+	 * The moves are kept in the arrays of this node's level, so they are only good while the node is on the path.
+	 * 
+	 * @param ordering - the killer, history and counter moves learned by the search
+	 * @param ply - the depth of this node in the search
+	 * @param stack - the move lists of the path this node is on
+	 */
+	public void orderChildren( MoveOrdering ordering, int ply, MoveStack stack ) {
+		
+		if ( this.parent == null || this.moves != null || this.nextStates != null )
+		{
+			return;
+		}
+		
+		this.moves = stack.moves(this.level);
+		this.moveScores = stack.scores(this.level);
+		this.moveIndex = 0;
+		this.moveCount = 0;
+		
+		// a game that is over has no moves at all
+		if ( this.state.over )
+		{
+			return;
+		}
+		
+		this.ordering = ordering;
+		this.ply = ply;
+		this.stage = CAPTURES;
+		
+		Bitboards boards = this.getBitboards();
+		int count = MoveGenerator.generateTactical(boards, this.state.player, this.moves);
+		
+		// the losing captures are put aside for the last stage
+		for ( int i = 0; i < count; i++ )
+		{
+			int move = this.moves[i];
+			
+			if ( MoveOrdering.isLosing(boards, move) )
+			{
+				if ( this.losingCaptures == null )
+					this.losingCaptures = stack.putAside(this.level);
+				this.losingCaptures[this.losingCaptureCount++] = move;
+			}
+			else
+			{
+				this.moves[this.moveCount] = move;
+				this.moveScores[this.moveCount] = MoveOrdering.mvvLva(boards, move);
+				this.moveCount++;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Make sure the move list has a move left, listing the next stages as needed
+	 * 
+	 * @return false once every stage is used up
+	 */
+	private boolean hasMoveLeft() {
+		
+		while ( this.moveIndex >= this.moveCount )
+		{
+			if ( !this.nextStage() )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * List the moves of the next stage, once the moves of the current one are used up
+	 * 
+	 * @return false if there is no stage left
+	 */
+	private boolean nextStage() {
+		
+		Bitboards boards = this.getBitboards();
+		this.moveIndex = 0;
+		this.moveCount = 0;
+		
+		switch ( this.stage )
+		{
+			case CAPTURES:
+				this.stage = KILLERS;
+				
+				// the killers come from other positions, they may not even be moves here
+				for ( int slot = 0; slot < 2; slot++ )
+				{
+					int move = this.ordering.killer(this.ply, slot);
+					if ( move != Move.NULL && move != this.hashMove && MoveGenerator.isQuietMove(boards, this.state.player, move) )
+					{
+						if ( slot == 0 )
+							this.killer = move;
+						else
+							this.secondKiller = move;
+						
+						this.moves[this.moveCount] = move;
+						this.moveScores[this.moveCount] = 2 - slot;
+						this.moveCount++;
+					}
+				}
+				return true;
+				
+			case KILLERS:
+				this.stage = QUIET_MOVES;
+				
+				int count = MoveGenerator.generateQuiet(boards, this.state.player, this.moves);
+				int previousMove = this.getMove();
+				for ( int i = 0; i < count; i++ )
+				{
+					int move = this.moves[i];
+					if ( move != this.killer && move != this.secondKiller )
+					{
+						this.moves[this.moveCount] = move;
+						this.moveScores[this.moveCount] = this.ordering.score(boards, move, this.state.player, this.ply, previousMove);
+						this.moveCount++;
+					}
+				}
+				return true;
+				
+			case QUIET_MOVES:
+				this.stage = LOSING_CAPTURES;
+				
+				for ( int i = 0; i < this.losingCaptureCount; i++ )
+				{
+					this.moves[i] = this.losingCaptures[i];
+					this.moveScores[i] = MoveOrdering.mvvLva(boards, this.losingCaptures[i]);
+				}
+				this.moveCount = this.losingCaptureCount;
+				return true;
+				
+			default:
+				this.stage = SINGLE_LIST;
+				return false;
+		}
+	}
+	
+	
+	/**
+	 * Skip the quiet moves that give no check from now on, only captures, promotions
+	 * and checks are expanded. Used when no quiet move can change the result of the node.
+	 * Nothing happens unless the children come from the move list.
+	 */
+	public void skipQuietMoves() {
+		this.quietMovesSkipped = true;
+	}
+	
+	
+	/**
+	 * Take the move with the highest score out of the moves left in the list
+	 * only the moves actually searched are sorted, a node cut off early sorts few of them
+	 * 
+	 * @return the packed move
+	 */
+	private int nextMove() {
+		
+		return MoveOrdering.selectBest(this.moves, this.moveScores, this.moveIndex++, this.moveCount);
+	}
+	
+	
+	/**
+	 * Returns the move that led from the parent to this state
+	 * 
+	 * @return the packed move, Move.NULL for the root
+	 */
+	public int getMove() {
+		if ( this.move == Move.NULL && this.parent != null )
+		{
+			Lock lock = this.boardLock.readLock(); // the parent's board may be in use by the game
+			lock.lock();
+			try
+			{
+				this.move = Move.between(this.parent.state, this.state);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		return this.move;
+	}
+	
+	
+	
+	/**
+	 * Forget the children generated so far, so that this node can be searched again from its first child
+	 * the children will be generated again, and charged to the budget again
+	 */
+	public void restart() {
+		this.nextStates = null;
+		this.generating = true;
+		this.pendingState = null;
+		this.hashChild = null;
+		this.hashChildExpanded = false;
+		this.hashMove = Move.NULL;
+		this.moves = null;
+		this.moveScores = null;
+		this.moveCount = 0;
+		this.moveIndex = 0;
+		this.stage = SINGLE_LIST;
+		this.ordering = null;
+		this.losingCaptures = null;
+		this.losingCaptureCount = 0;
+		this.killer = Move.NULL;
+		this.secondKiller = Move.NULL;
+		this.pendingMove = Move.NULL;
+		this.quietMovesSkipped = false;
+		this.childCount = 0;
+		if ( this.children != null )
+			this.children.clear();
+	}
 	
 	
 	
@@ -104,10 +732,10 @@ public class GameTree {
 	 * <IMPORTANT> perform move reordering for the sake of pruning and get the tree ready for the next iteration
 	 * Expected outcome: this.nextState holds a new iterator, now in descending order of values
 	 * 
-	 * @param previousStatesMap - the HashMap that keeps track of previous states, used to check draw state
+	 * @param history - the positions that occurred so far in the game, used to check draw state
 	 * @return The Best Node found in this tree's children list
 	 */
-	public GameTree reorderGameTree ( HashMap<String,Integer> previousStatesMap )
+	public GameTree reorderGameTree ( RepetitionHistory history )
 	{
 
 		/**
@@ -143,7 +771,7 @@ public class GameTree {
 					 *  call checkDrawState method to ensure this state is not a draw state
 					 *  only proceed with this state if it is NOT a draw state
 					 */
-					if ( !this.checkDrawState(this.children.get(j), previousStatesMap) )
+					if ( !this.checkDrawState(this.children.get(j), history) )
 					{
 						sortedNodeList.add(this.children.get(j));
 						
@@ -184,11 +812,30 @@ public class GameTree {
 		// this is to improve pruning
 		ArrayList<State> sortedStateList = this.putCaptureMoveOntop(sortedNodeList);
 		
+		// a search cut off at this node never reached its last children, they go at the end
+		if ( this.hashChild != null && !this.hashChildExpanded )
+		{
+			sortedStateList.add(this.hashChild.state);
+			this.hashChildExpanded = true;
+		}
+		while ( this.hasNextChild() && this.pendingState != null )
+		{
+			sortedStateList.add(this.pendingState);
+			this.pendingState = null;
+		}
+		
 		/**
 		 *  get an iterator from sortedStatesList and save it to this.nextStates
 		 *  now this tree has everything it needs for a new iteration
 		 */
 		this.nextStates = sortedStateList.iterator();
+		this.generating = false;
+		this.pendingState = null;
+		
+		// the hash child is in the list with the others now
+		this.hashChild = null;
+		this.hashChildExpanded = false;
+		this.hashMove = Move.NULL;
 		
 		// return the bestNode found in this iteration
 		return bestNode;
@@ -199,48 +846,37 @@ public class GameTree {
 	/**
 	 * Check whether or not this state is a draw state
 	 * 
-	 * @param stateToCheck
-	 * @param previousStatesMap
+	 * @param nodeToCheck
+	 * @param history - the positions that occurred before this state
 	 * @return true if this is a draw state, otherwise false
 	 */
-	public boolean checkDrawState( GameTree nodeToCheck, HashMap<String,Integer> previousStatesMap )
+	public boolean checkDrawState( GameTree nodeToCheck, RepetitionHistory history )
 	{
-		State stateToCheck = nodeToCheck.getState();
-		
-		// get the state's string representation
-		String stateName = stateToCheck.toString().substring(stateToCheck.toString().lastIndexOf(" "));
-	
 		// if there has been two of the same states occurred in the past, then another one will lead to a draw
-		if ( previousStatesMap.containsKey(stateName) && previousStatesMap.get(stateName) == 2)
-		{
-			return true;
-		}
-		
-		// save the stateName for later use
-		nodeToCheck.stateName = stateName;
-		
-		return false;
+		return history.isRepetition(nodeToCheck.getBoardHash(), nodeToCheck.getState().movesUntilDraw, nodeToCheck.isIrreversible());
 	}
 	
 	
 	/**
 	 * Do further move reordering by putting capturing move on top of the list
+	 * the captures are ordered by MVV-LVA, the ones losing material to the recaptures stay where their value puts them
 	 * 
-	 * @param stateToCheck
-	 * @param previousStatesMap
-	 * @return true if this is a draw state, otherwise false
+	 * @param sortedNodeList - the children in descending order of values
+	 * @return the states of the children, the winning captures first
 	 */
 	public ArrayList<State> putCaptureMoveOntop( ArrayList<GameTree> sortedNodeList)
 	{
-		ArrayList<State> captureFirstList = new ArrayList<State>();
+		Bitboards boards = this.getBitboards();
+		ArrayList<GameTree> captureFirstList = new ArrayList<GameTree>();
 		ArrayList<State> nonCaptureMoves = new ArrayList<State>();
 		
-		// put all capture moves in captureFirstList list, otherwise in the other
+		// put all winning capture moves in captureFirstList list, otherwise in the other
 		for ( GameTree node: sortedNodeList)
 		{
-			if ( node.stateName.contains("x")) //indicates capture moves
+			int move = node.getMove();
+			if ( MoveGenerator.isTactical(boards, move) && !MoveOrdering.isLosing(boards, move) )
 			{
-				captureFirstList.add(node.getState());
+				captureFirstList.add(node);
 			}
 			else
 			{
@@ -248,11 +884,19 @@ public class GameTree {
 			}
 		}
 		
-		// add nonCaptureMove list to captureFirstList
-		// now captureFirstList contains all the move without messing up the original order, only with capture moves on top
-		captureFirstList.addAll(nonCaptureMoves);
+		// the best victim first, the sort is stable so equal captures keep the order of their values
+		captureFirstList.sort((a, b) -> MoveOrdering.mvvLva(boards, b.getMove()) - MoveOrdering.mvvLva(boards, a.getMove()));
+		
+		// add nonCaptureMove list after the captures
+		// now the list contains all the move without messing up the original order, only with capture moves on top
+		ArrayList<State> sortedStateList = new ArrayList<State>();
+		for ( GameTree node : captureFirstList )
+		{
+			sortedStateList.add(node.getState());
+		}
+		sortedStateList.addAll(nonCaptureMoves);
 		
-		return captureFirstList;
+		return sortedStateList;
 	}
 	
 	
@@ -0,0 +1,278 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Iterator;
+
+import com.stephengware.java.games.chess.state.Bishop;
+import com.stephengware.java.games.chess.state.King;
+import com.stephengware.java.games.chess.state.Knight;
+import com.stephengware.java.games.chess.state.Pawn;
+import com.stephengware.java.games.chess.state.Piece;
+import com.stephengware.java.games.chess.state.Player;
+import com.stephengware.java.games.chess.state.Queen;
+import com.stephengware.java.games.chess.state.Rook;
+import com.stephengware.java.games.chess.state.State;
+
+/**
+ * A move is packed into a single int so it can be stored in tables without
+ * creating any objects...
+ *
+ * bits 0 - 5   : the square the piece moves from (rank * 8 + file)
+ * bits 6 - 11  : the square the piece moves to
+ * bits 12 - 14 : the piece a pawn is promoted to, NONE otherwise
+ *
+ * A castling move is stored as the move of the King.
+ *
+ * @author Hung L. Le
+ */
+public final class Move {
+
+	/** The value used when there is no move at all */
+	public static final int NULL = 0;
+
+	/** Promotion codes */
+	public static final int NONE = 0;
+	public static final int KNIGHT = 1;
+	public static final int BISHOP = 2;
+	public static final int ROOK = 3;
+	public static final int QUEEN = 4;
+
+
+	private Move() {
+		// static methods only
+	}
+
+
+	/**
+	 * Packs a move into an int
+	 *
+	 * @param from - the square the piece moves from
+	 * @param to - the square the piece moves to
+	 * @param promotion - the promotion code, NONE if this is not a promotion
+	 * @return the packed move
+	 */
+	public static int encode(int from, int to, int promotion)
+	{
+		return from | (to << 6) | (promotion << 12);
+	}
+
+
+	/** @return the square the piece moves from */
+	public static int from(int move)
+	{
+		return move & 0x3F;
+	}
+
+
+	/** @return the square the piece moves to */
+	public static int to(int move)
+	{
+		return (move >>> 6) & 0x3F;
+	}
+
+
+	/** @return the promotion code of the move */
+	public static int promotion(int move)
+	{
+		return (move >>> 12) & 0x7;
+	}
+
+
+	/**
+	 * Returns the square index of a given file and rank
+	 *
+	 * @param file
+	 * @param rank
+	 * @return the square index, from 0 (a1) to 63 (h8)
+	 */
+	public static int square(int file, int rank)
+	{
+		return (rank << 3) | file;
+	}
+
+
+	/**
+	 * Returns the move of the Rook that goes with a castling move,
+	 * from its corner to file d or f, where the game puts it
+	 *
+	 * @param move - the King's move, two squares along the rank
+	 * @return the packed move of the Rook
+	 */
+	public static int castlingRook(int move)
+	{
+		int rank = from(move) >>> 3;
+		if ( (to(move) & 7) > (from(move) & 7) )
+			return encode(square(7, rank), square(5, rank), NONE);
+		return encode(square(0, rank), square(3, rank), NONE);
+	}
+
+
+	/**
+	 * Find the move that was made to get from the parent state to the child state
+	 *
+	 * concept: the moving player's pieces which left a square give the "from" square,
+	 * the ones which arrived at a square give the "to" square.
+	 * For castling, both the King and the Rook move, the King's move is the one recorded
+	 *
+	 * @param parent - the state before the move
+	 * @param child - the state after the move
+	 * @return the packed move
+	 */
+	public static int between(State parent, State child)
+	{
+		Player player = parent.player;
+
+		int from = -1;
+		int to = -1;
+		int promotion = NONE;
+		Piece movedPiece = null;
+
+		// find the piece which left its square
+		Iterator<Piece> pieces = parent.board.iterator();
+		while ( pieces.hasNext() )
+		{
+			Piece piece = pieces.next();
+
+			if ( piece.player != player )
+				continue;
+
+			Piece pieceNow = child.board.getPieceAt(piece.file, piece.rank);
+
+			if ( pieceNow == null || pieceNow.player != player )
+			{
+				if ( from == -1 || piece instanceof King )
+				{
+					from = square(piece.file, piece.rank);
+					movedPiece = piece;
+				}
+			}
+		}
+
+		// find the piece which arrived at a new square
+		pieces = child.board.iterator();
+		while ( pieces.hasNext() )
+		{
+			Piece piece = pieces.next();
+
+			if ( piece.player != player )
+				continue;
+
+			Piece pieceBefore = parent.board.getPieceAt(piece.file, piece.rank);
+
+			if ( pieceBefore == null || pieceBefore.player != player )
+			{
+				if ( to == -1 || piece instanceof King )
+				{
+					to = square(piece.file, piece.rank);
+
+					// a pawn which arrives as another piece has been promoted
+					if ( movedPiece instanceof Pawn && !(piece instanceof Pawn) )
+						promotion = promotionCode(piece);
+				}
+			}
+		}
+
+		if ( from == -1 || to == -1 )
+			return NULL;
+
+		return encode(from, to, promotion);
+	}
+
+
+	/**
+	 * Construct the child state that results from taking a given move
+	 *
+	 * @param parent - the state in which the move is made
+	 * @param move - the packed move
+	 * @param budget - the budget every state constructed on the way is charged to
+	 * @return the resulting state, or null if the move is not legal in this state
+	 */
+	public static State toState(State parent, int move, SearchBudget budget)
+	{
+		if ( move == NULL )
+			return null;
+
+		int from = from(move);
+		int to = to(move);
+
+		Piece piece = parent.board.getPieceAt(from & 7, from >>> 3);
+
+		if ( piece == null || piece.player != parent.player )
+			return null;
+
+		Piece target;
+		switch ( promotion(move) )
+		{
+			case KNIGHT:
+				target = new Knight(piece.player, to & 7, to >>> 3);
+				break;
+			case BISHOP:
+				target = new Bishop(piece.player, to & 7, to >>> 3);
+				break;
+			case ROOK:
+				target = new Rook(piece.player, to & 7, to >>> 3);
+				break;
+			case QUEEN:
+				target = new Queen(piece.player, to & 7, to >>> 3);
+				break;
+			default:
+				target = piece.move((to & 7) - piece.file, (to >>> 3) - piece.rank);
+		}
+
+		State child;
+		try
+		{
+			child = parent.next(piece, target);
+			budget.charge();
+		}
+		catch ( IllegalArgumentException e )
+		{
+			// the move does not exist in this state (e.g. it came from a hash collision)
+			return null;
+		}
+
+		/**
+		 * the game returns the first state where the piece left its square and arrived at the target
+		 * castling also moves the Rook to the square beside the King, so the Rook's own move
+		 * to that square may come back as castling: look for it among the Rook's moves instead
+		 */
+		if ( !(piece instanceof King) && kingMoved(parent, child) )
+		{
+			for ( State state : parent.next(piece) )
+			{
+				budget.charge();
+				if ( state.board.contains(target) && !kingMoved(parent, state) )
+					return state;
+			}
+			return null;
+		}
+
+		return child;
+	}
+
+
+	/**
+	 * @return true if the King of the player to move in the parent stands on another square in the child
+	 */
+	private static boolean kingMoved(State parent, State child)
+	{
+		King king = parent.board.getKing(parent.player);
+		return king != null && !child.board.contains(king);
+	}
+
+
+	/**
+	 * @param piece - the piece a pawn was promoted to
+	 * @return the promotion code of the piece
+	 */
+	private static int promotionCode(Piece piece)
+	{
+		if ( piece instanceof Knight )
+			return KNIGHT;
+		else if ( piece instanceof Bishop )
+			return BISHOP;
+		else if ( piece instanceof Rook )
+			return ROOK;
+		else
+			return QUEEN;
+	}
+}
@@ -0,0 +1,392 @@
+package com.stephengware.java.games.chess.bot;
+
+import com.stephengware.java.games.chess.state.Player;
+
+/**
+ * Lists the moves of a position from its bitboards, without creating any State
+ *
+ * The moves that would leave the player's own King attacked are left out, since the game
+ * has to look at every move of the position to turn down a single one of them.
+ * En passant and castling are listed whenever they might be allowed, the game decides
+ * the rest when a move is turned into a state with Move.toState(), which returns null
+ * for the moves it does not allow. A Position decides them on its own, the way the game does.
+ *
+ * The moves can be listed in two parts, for a search that may be cut off before it needs the second:
+ * the tactical moves (captures and promotions), then the quiet moves.
+ *
+ * @author Hung L. Le
+ */
+public final class MoveGenerator {
+
+	/** more moves than any position can have */
+	public static final int MAX_MOVES = 256;
+
+	/** the promotions a pawn can choose from, best first */
+	private static final int[] PROMOTIONS = { Move.QUEEN, Move.KNIGHT, Move.ROOK, Move.BISHOP };
+
+
+	private MoveGenerator() {
+		// static methods only
+	}
+
+
+	/**
+	 * List the moves of a player
+	 *
+	 * @param boards - the bitboards of the position
+	 * @param player - the player to move
+	 * @param moves - receives the packed moves, at least MAX_MOVES long
+	 * @return the number of moves listed
+	 */
+	public static int generate(Bitboards boards, Player player, int[] moves)
+	{
+		return generate(boards, player, moves, true, true);
+	}
+
+
+	/**
+	 * List the captures and promotions of a player, en passant included
+	 *
+	 * @param boards - the bitboards of the position
+	 * @param player - the player to move
+	 * @param moves - receives the packed moves, at least MAX_MOVES long
+	 * @return the number of moves listed
+	 */
+	public static int generateTactical(Bitboards boards, Player player, int[] moves)
+	{
+		return generate(boards, player, moves, true, false);
+	}
+
+
+	/**
+	 * List the moves of a player which are neither captures nor promotions, castling included
+	 *
+	 * @param boards - the bitboards of the position
+	 * @param player - the player to move
+	 * @param moves - receives the packed moves, at least MAX_MOVES long
+	 * @return the number of moves listed
+	 */
+	public static int generateQuiet(Bitboards boards, Player player, int[] moves)
+	{
+		return generate(boards, player, moves, false, true);
+	}
+
+
+	/**
+	 * Check whether a move remembered from another position, such as a killer move,
+	 * is a quiet move of the player here which does not leave the King attacked
+	 * castling is never taken, it is left to the list of quiet moves
+	 *
+	 * @param boards - the bitboards of the position
+	 * @param player - the player to move
+	 * @param move - a packed move
+	 * @return true if the move would be listed by generateQuiet()
+	 */
+	public static boolean isQuietMove(Bitboards boards, Player player, int move)
+	{
+		int from = Move.from(move);
+		int to = Move.to(move);
+
+		int code = boards.pieceAt(from);
+		if ( code < 0 || Bitboards.player(code) != player || Move.promotion(move) != Move.NONE
+				|| (boards.occupied & (1L << to)) != 0 )
+		{
+			return false;
+		}
+
+		int type = Bitboards.type(code);
+		if ( type == Bitboards.PAWN )
+		{
+			boolean white = player == Player.WHITE;
+			int forward = white ? 8 : -8;
+			if ( (to >>> 3) == (white ? 7 : 0) )
+				return false;
+			if ( to != from + forward && !(to == from + 2 * forward && (from >>> 3) == (white ? 1 : 6)
+					&& (boards.occupied & (1L << (from + forward))) == 0) )
+				return false;
+		}
+		else if ( (Attacks.of(type, player, from, boards.occupied) & (1L << to)) == 0 )
+		{
+			return false;
+		}
+
+		return !leavesKingAttacked(boards, player, move);
+	}
+
+
+	/**
+	 * List the tactical moves, the quiet moves, or both
+	 */
+	private static int generate(Bitboards boards, Player player, int[] moves, boolean tactical, boolean quiet)
+	{
+		long enemy = boards.occupiedBy(player.other());
+		long empty = ~boards.occupied;
+		long targetSquares = (tactical ? enemy : 0L) | (quiet ? empty : 0L);
+		int count = 0;
+
+		count = generatePawnMoves(boards, player, enemy, tactical, quiet, moves, count);
+
+		for ( int type = Bitboards.KNIGHT; type <= Bitboards.KING; type++ )
+		{
+			long set = boards.pieces[Bitboards.pieceCode(type, player)];
+			while ( set != 0 )
+			{
+				int from = Long.numberOfTrailingZeros(set);
+				set &= set - 1;
+
+				long targets = Attacks.of(type, player, from, boards.occupied) & targetSquares;
+				while ( targets != 0 )
+				{
+					moves[count++] = Move.encode(from, Long.numberOfTrailingZeros(targets), Move.NONE);
+					targets &= targets - 1;
+				}
+			}
+		}
+
+		if ( quiet )
+			count = generateCastling(boards, player, moves, count);
+
+		// keep only the moves that do not leave the King attacked
+		int legal = 0;
+		for ( int i = 0; i < count; i++ )
+		{
+			if ( !leavesKingAttacked(boards, player, moves[i]) )
+				moves[legal++] = moves[i];
+		}
+		return legal;
+	}
+
+
+	/**
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param move - a packed move
+	 * @return true if the move captures a piece, en passant included
+	 */
+	public static boolean isCapture(Bitboards boards, int move)
+	{
+		int from = Move.from(move);
+		int to = Move.to(move);
+
+		if ( boards.isOccupied(to & 7, to >>> 3) )
+			return true;
+
+		// a pawn only moves sideways to capture
+		long pawns = boards.pieces[Bitboards.PAWN] | boards.pieces[Bitboards.PAWN + Bitboards.BLACK_OFFSET];
+		return (pawns & (1L << from)) != 0 && (from & 7) != (to & 7);
+	}
+
+
+	/**
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param move - a packed move
+	 * @return true for captures and promotions, the moves that change the material
+	 */
+	public static boolean isTactical(Bitboards boards, int move)
+	{
+		return Move.promotion(move) != Move.NONE || isCapture(boards, move);
+	}
+
+
+	/**
+	 * Check whether a move puts the opponent's King in check, directly or by uncovering a Bishop, Rook or Queen
+	 * castling is always taken as a check, since the Rook's move is not looked at
+	 *
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param player - the player making the move
+	 * @param move - a packed move
+	 * @return true if the opponent's King would be attacked after the move
+	 */
+	public static boolean givesCheck(Bitboards boards, Player player, int move)
+	{
+		int king = boards.kingSquare(player.other());
+		if ( king < 0 )
+			return false;
+
+		int from = Move.from(move);
+		int to = Move.to(move);
+		long fromBit = 1L << from;
+
+		int code = boards.pieceAt(from);
+		if ( code < 0 )
+			return false;
+		int type = Bitboards.type(code);
+
+		if ( type == Bitboards.KING && Math.abs((to & 7) - (from & 7)) == 2 )
+			return true;
+
+		// the promotion codes are the piece types
+		if ( Move.promotion(move) != Move.NONE )
+			type = Move.promotion(move);
+
+		long occupied = (boards.occupied & ~fromBit) | (1L << to);
+		if ( type == Bitboards.PAWN && (from & 7) != (to & 7) && (boards.occupied & (1L << to)) == 0 )
+			occupied &= ~(1L << Move.square(to & 7, from >>> 3)); // en passant
+
+		// the moved piece itself
+		if ( (Attacks.of(type, player, to, occupied) & (1L << king)) != 0 )
+			return true;
+
+		// a piece behind it
+		long queens = boards.pieces[Bitboards.pieceCode(Bitboards.QUEEN, player)];
+		long bishops = (boards.pieces[Bitboards.pieceCode(Bitboards.BISHOP, player)] | queens) & ~fromBit;
+		long rooks = (boards.pieces[Bitboards.pieceCode(Bitboards.ROOK, player)] | queens) & ~fromBit;
+		return (Attacks.bishop(king, occupied) & bishops) != 0 || (Attacks.rook(king, occupied) & rooks) != 0;
+	}
+
+
+	/**
+	 * Check whether a move would leave the player's King attacked by one of the opponent's pieces
+	 * castling is left to the game, it has rules of its own about check
+	 *
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param player - the player making the move
+	 * @param move - a packed move
+	 * @return true if the King would be attacked after the move
+	 */
+	public static boolean leavesKingAttacked(Bitboards boards, Player player, int move)
+	{
+		int from = Move.from(move);
+		int to = Move.to(move);
+		long fromBit = 1L << from;
+		long toBit = 1L << to;
+
+		int king = boards.kingSquare(player);
+		if ( king < 0 )
+			return false;
+
+		// the King itself moves
+		if ( king == from )
+		{
+			if ( Math.abs((to & 7) - (from & 7)) == 2 )
+				return false;
+			king = to;
+		}
+
+		// the opponent's pieces still on the board after the move
+		long captured = toBit;
+		long pawns = boards.pieces[Bitboards.pieceCode(Bitboards.PAWN, player)];
+		if ( (pawns & fromBit) != 0 && (from & 7) != (to & 7) && (boards.occupied & toBit) == 0 )
+			captured = 1L << Move.square(to & 7, from >>> 3); // en passant
+		long occupied = (boards.occupied & ~fromBit & ~captured) | toBit;
+
+		Player opponent = player.other();
+		long queens = boards.pieces[Bitboards.pieceCode(Bitboards.QUEEN, opponent)];
+
+		return (Attacks.knight(king) & boards.pieces[Bitboards.pieceCode(Bitboards.KNIGHT, opponent)] & ~captured) != 0
+				|| (Attacks.king(king) & boards.pieces[Bitboards.pieceCode(Bitboards.KING, opponent)] & ~captured) != 0
+				|| (Attacks.pawn(player, king) & boards.pieces[Bitboards.pieceCode(Bitboards.PAWN, opponent)] & ~captured) != 0
+				|| (Attacks.bishop(king, occupied) & (boards.pieces[Bitboards.pieceCode(Bitboards.BISHOP, opponent)] | queens) & ~captured) != 0
+				|| (Attacks.rook(king, occupied) & (boards.pieces[Bitboards.pieceCode(Bitboards.ROOK, opponent)] | queens) & ~captured) != 0;
+	}
+
+
+	/**
+	 * List the pushes, double pushes, captures and promotions of a player's pawns
+	 * the tactical ones are the captures and promotions, the quiet ones the other pushes
+	 */
+	private static int generatePawnMoves(Bitboards boards, Player player, long enemy, boolean tactical, boolean quiet,
+			int[] moves, int count)
+	{
+		boolean white = player == Player.WHITE;
+		int forward = white ? 8 : -8;
+		int startRank = white ? 1 : 6;
+		int lastRank = white ? 7 : 0;
+		long enemyPawns = boards.pieces[Bitboards.pieceCode(Bitboards.PAWN, player.other())];
+
+		long pawns = boards.pieces[Bitboards.pieceCode(Bitboards.PAWN, player)];
+		while ( pawns != 0 )
+		{
+			int from = Long.numberOfTrailingZeros(pawns);
+			pawns &= pawns - 1;
+
+			// one step forward, and two from the starting rank
+			int to = from + forward;
+			if ( to >= 0 && to < 64 && (boards.occupied & (1L << to)) == 0 )
+			{
+				if ( (to >>> 3) == lastRank ? tactical : quiet )
+					count = addPawnMove(from, to, lastRank, moves, count);
+
+				int twoSteps = to + forward;
+				if ( quiet && (from >>> 3) == startRank && (boards.occupied & (1L << twoSteps)) == 0 )
+					moves[count++] = Move.encode(from, twoSteps, Move.NONE);
+			}
+
+			if ( !tactical )
+				continue;
+
+			long attacks = Attacks.pawn(player, from);
+
+			long captures = attacks & enemy;
+			while ( captures != 0 )
+			{
+				count = addPawnMove(from, Long.numberOfTrailingZeros(captures), lastRank, moves, count);
+				captures &= captures - 1;
+			}
+
+			// en passant: an empty square behind an enemy pawn standing beside this one
+			long passing = attacks & ~boards.occupied;
+			while ( passing != 0 )
+			{
+				int target = Long.numberOfTrailingZeros(passing);
+				passing &= passing - 1;
+
+				int beside = Move.square(target & 7, from >>> 3);
+				if ( (enemyPawns & (1L << beside)) != 0 )
+					moves[count++] = Move.encode(from, target, Move.NONE);
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Add the move of a pawn, or its four promotions when it reaches the last rank
+	 */
+	private static int addPawnMove(int from, int to, int lastRank, int[] moves, int count)
+	{
+		if ( (to >>> 3) != lastRank )
+		{
+			moves[count++] = Move.encode(from, to, Move.NONE);
+			return count;
+		}
+
+		for ( int promotion : PROMOTIONS )
+		{
+			moves[count++] = Move.encode(from, to, promotion);
+		}
+		return count;
+	}
+
+
+	/**
+	 * Add the castling moves of an unmoved King towards every unmoved Rook with nothing in between
+	 * whether the King is in check, or passes through check, is left to the game
+	 */
+	private static int generateCastling(Bitboards boards, Player player, int[] moves, int count)
+	{
+		int king = boards.kingSquare(player);
+		if ( king < 0 || (boards.unmoved & (1L << king)) == 0 )
+			return count;
+
+		long rooks = boards.pieces[Bitboards.pieceCode(Bitboards.ROOK, player)] & boards.unmoved;
+		int rank = king >>> 3;
+
+		for ( int side = -1; side <= 1; side += 2 )
+		{
+			int rook = Move.square(side < 0 ? 0 : 7, rank);
+			if ( (rooks & (1L << rook)) == 0 || (king & 7) + 2 * side < 0 || (king & 7) + 2 * side > 7 )
+				continue;
+
+			boolean clear = true;
+			for ( int square = king + side; square != rook; square += side )
+			{
+				if ( (boards.occupied & (1L << square)) != 0 )
+					clear = false;
+			}
+
+			if ( clear )
+				moves[count++] = Move.encode(king, king + 2 * side, Move.NONE);
+		}
+		return count;
+	}
+}
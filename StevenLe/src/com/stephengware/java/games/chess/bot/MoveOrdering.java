@@ -0,0 +1,248 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Arrays;
+
+import com.stephengware.java.games.chess.state.Player;
+
+/**
+ * Remembers which quiet moves cut the search off, to try them early in other nodes
+ *
+ * killers - the last two quiet moves that cut a node off at each ply; sibling positions
+ *           usually have the same refutation
+ * history - a "butterfly" table, indexed by side, from and to square, adding up how much
+ *           search each quiet move has saved by cutting a node off anywhere in the tree
+ * counter moves - the quiet move that last cut a node off right after a given move of the opponent
+ *
+ * Captures and promotions come first whatever these tables say: the most valuable victim first,
+ * taken by the least valuable attacker first (MVV-LVA). A capture that loses material once the
+ * opponent recaptures, as told by the static exchange evaluation, comes after all quiet moves.
+ *
+ * All tables are ints, so when the threads of a split search share them, a race only
+ * loses or mixes an update, and a wrong entry only orders a move too early.
+ *
+ * @author Hung L. Le
+ */
+public class MoveOrdering {
+
+	/** the deepest ply killers are kept for */
+	private static final int MAX_PLY = 128;
+
+	/** the history of a move never reaches this, the tables are halved before it does */
+	private static final int HISTORY_LIMIT = 1 << 20;
+
+	/** the ordering scores of the kinds of moves, the quiet moves without any are ordered by history */
+	private static final int WINNING_CAPTURE = 4 * HISTORY_LIMIT;
+	private static final int KILLER = 3 * HISTORY_LIMIT;
+	private static final int COUNTER_MOVE = 2 * HISTORY_LIMIT;
+	private static final int LOSING_CAPTURE = -2 * HISTORY_LIMIT;
+
+	/** the two killer moves of each ply, the most recent first */
+	private final int[][] killers = new int[MAX_PLY][2];
+
+	/** the history of every quiet move, indexed by side * 4096 + from * 64 + to */
+	private final int[] history = new int[2 * 64 * 64];
+
+	/** the reply to every move of the opponent, indexed by from * 64 + to of the opponent's move */
+	private final int[] counterMoves = new int[64 * 64];
+
+
+	/**
+	 * Get the tables ready for the search of a new move
+	 * the killers belong to plies of the previous search, so they are dropped,
+	 * the history still holds but is halved so the new search can outweigh it
+	 */
+	public void age()
+	{
+		for ( int[] slots : this.killers )
+		{
+			Arrays.fill(slots, Move.NULL);
+		}
+		for ( int i = 0; i < this.history.length; i++ )
+		{
+			this.history[i] /= 2;
+		}
+	}
+
+
+	/**
+	 * Score a move for ordering, the higher the earlier it is searched
+	 *
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param move - the packed move
+	 * @param player - the player making the move
+	 * @param ply - the depth of the position in the search
+	 * @param previousMove - the move that led to the position, Move.NULL if it is not known
+	 * @return the ordering score of the move
+	 */
+	public int score(Bitboards boards, int move, Player player, int ply, int previousMove)
+	{
+		if ( MoveGenerator.isTactical(boards, move) )
+		{
+			return (isLosing(boards, move) ? LOSING_CAPTURE : WINNING_CAPTURE) + mvvLva(boards, move);
+		}
+
+		if ( ply < MAX_PLY )
+		{
+			if ( move == this.killers[ply][0] )
+				return KILLER + 1;
+			if ( move == this.killers[ply][1] )
+				return KILLER;
+		}
+
+		if ( previousMove != Move.NULL && move == this.counterMoves[butterfly(previousMove)] )
+			return COUNTER_MOVE;
+
+		return this.history[index(player, move)];
+	}
+
+
+	/**
+	 * @param ply - the depth of a position in the search
+	 * @param slot - 0 for the most recent killer of the ply, 1 for the other one
+	 * @return the killer move, Move.NULL if there is none
+	 */
+	public int killer(int ply, int slot)
+	{
+		return ply < MAX_PLY ? this.killers[ply][slot] : Move.NULL;
+	}
+
+
+	/**
+	 * Bring the move with the highest score among the moves left in a list to the front of them
+	 * only the moves actually searched are sorted, a node cut off early sorts few of them
+	 *
+	 * @param moves - the packed moves
+	 * @param scores - their ordering scores, moved along with them
+	 * @param index - the first move left
+	 * @param count - the number of moves in the list
+	 * @return the move with the highest score, now at index
+	 */
+	public static int selectBest(int[] moves, int[] scores, int index, int count)
+	{
+		int best = index;
+		for ( int i = index + 1; i < count; i++ )
+		{
+			if ( scores[i] > scores[best] )
+			{
+				best = i;
+			}
+		}
+
+		int move = moves[best];
+		int score = scores[best];
+		moves[best] = moves[index];
+		scores[best] = scores[index];
+		moves[index] = move;
+		scores[index] = score;
+
+		return move;
+	}
+
+
+	/**
+	 * Score a capture or a promotion: the more valuable the victim the better, then the less
+	 * valuable the attacker the better; a promotion counts as capturing the piece it promotes to
+	 *
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param move - the packed move
+	 * @return the MVV-LVA score, 0 or more
+	 */
+	public static int mvvLva(Bitboards boards, int move)
+	{
+		int attacker = boards.pieceAt(Move.from(move));
+
+		return gain(boards, move) * 128 + (EvalAccumulator.MATERIAL[Bitboards.KING] - EvalAccumulator.MATERIAL[Bitboards.type(attacker)]);
+	}
+
+
+	/**
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param move - the packed move
+	 * @return the material the move wins if nothing is recaptured: the victim, plus what a promotion adds
+	 */
+	public static int gain(Bitboards boards, int move)
+	{
+		int victim = boards.pieceAt(Move.to(move));
+		int attacker = boards.pieceAt(Move.from(move));
+
+		int gain = victim < 0 ? 0 : EvalAccumulator.MATERIAL[Bitboards.type(victim)];
+		if ( victim < 0 && Bitboards.type(attacker) == Bitboards.PAWN && (Move.from(move) & 7) != (Move.to(move) & 7) )
+			gain = EvalAccumulator.MATERIAL[Bitboards.PAWN]; // en passant
+		if ( Move.promotion(move) == Move.QUEEN )
+			gain += EvalAccumulator.MATERIAL[Bitboards.QUEEN] - EvalAccumulator.MATERIAL[Bitboards.PAWN];
+
+		return gain;
+	}
+
+
+	/**
+	 * @param boards - the bitboards of the position the move is made in
+	 * @param move - a capture or a promotion
+	 * @return true if the opponent's recaptures make the move lose material
+	 */
+	public static boolean isLosing(Bitboards boards, int move)
+	{
+		int victim = boards.pieceAt(Move.to(move));
+		int attacker = boards.pieceAt(Move.from(move));
+
+		// taking a piece worth at least the attacker never loses, whatever comes next
+		if ( victim >= 0 && Move.promotion(move) == Move.NONE
+				&& EvalAccumulator.MATERIAL[Bitboards.type(victim)] >= EvalAccumulator.MATERIAL[Bitboards.type(attacker)] )
+		{
+			return false;
+		}
+		return StaticExchange.evaluate(boards, move) < 0;
+	}
+
+
+	/**
+	 * Record a quiet move that cut a node off
+	 *
+	 * @param move - the packed move
+	 * @param player - the player who made the move
+	 * @param ply - the depth of the node in the search
+	 * @param remainingDepth - the number of plies that were left to search below the node
+	 * @param previousMove - the move that led to the node, Move.NULL if it is not known
+	 */
+	public void cutoff(int move, Player player, int ply, int remainingDepth, int previousMove)
+	{
+		if ( ply < MAX_PLY && this.killers[ply][0] != move )
+		{
+			this.killers[ply][1] = this.killers[ply][0];
+			this.killers[ply][0] = move;
+		}
+
+		if ( previousMove != Move.NULL )
+			this.counterMoves[butterfly(previousMove)] = move;
+
+		// a cut-off high in the tree saves much more search than one near the leaves
+		int index = index(player, move);
+		this.history[index] += remainingDepth * remainingDepth;
+
+		if ( this.history[index] >= HISTORY_LIMIT )
+		{
+			for ( int i = 0; i < this.history.length; i++ )
+			{
+				this.history[i] /= 2;
+			}
+		}
+	}
+
+
+	/**
+	 * @return the index of a move in a from-to table
+	 */
+	private static int butterfly(int move)
+	{
+		return Move.from(move) * 64 + Move.to(move);
+	}
+
+
+	/**
+	 * @return the index of a player's move in the history table
+	 */
+	private static int index(Player player, int move)
+	{
+		return (player == Player.WHITE ? 0 : 64 * 64) + butterfly(move);
+	}
+}
@@ -0,0 +1,69 @@
+package com.stephengware.java.games.chess.bot;
+
+/**
+ * The move lists of the nodes on the path being searched, in arrays reused by every node of every search
+ *
+ * A node only needs its move list while it is on the path, and the path holds a single node
+ * at each ply, so all the nodes at the same distance from the root share the same arrays:
+ * the moves, their ordering scores, and the captures put aside for later.
+ * Without it, every node searched would allocate a list of MoveGenerator.MAX_MOVES moves and scores.
+ *
+ * The arrays of a ply are allocated the first time the ply is reached. Every line of search
+ * has its own stack, see SearchContext, so a stack is only ever used by one thread at a time.
+ *
+ * @author Hung L. Le
+ */
+public class MoveStack {
+
+	/** the deepest ply with pooled arrays, the nodes below it get arrays of their own */
+	public static final int MAX_PLY = 128;
+
+	/** the arrays of each ply, null until the ply is reached */
+	private final int[][] moves = new int[MAX_PLY][];
+	private final int[][] scores = new int[MAX_PLY][];
+	private final int[][] putAside = new int[MAX_PLY][];
+
+
+	/**
+	 * @param ply - the distance of a node from the root
+	 * @return the array holding the moves of the node, MoveGenerator.MAX_MOVES long
+	 */
+	public int[] moves(int ply)
+	{
+		return get(this.moves, ply);
+	}
+
+
+	/**
+	 * @param ply - the distance of a node from the root
+	 * @return the array holding the ordering scores of the node's moves, MoveGenerator.MAX_MOVES long
+	 */
+	public int[] scores(int ply)
+	{
+		return get(this.scores, ply);
+	}
+
+
+	/**
+	 * @param ply - the distance of a node from the root
+	 * @return the array holding the moves the node puts aside for a later stage, MoveGenerator.MAX_MOVES long
+	 */
+	public int[] putAside(int ply)
+	{
+		return get(this.putAside, ply);
+	}
+
+
+	/**
+	 * @return the array of a ply, allocated when first needed
+	 */
+	private static int[] get(int[][] arrays, int ply)
+	{
+		if ( ply >= MAX_PLY )
+			return new int[MoveGenerator.MAX_MOVES];
+
+		if ( arrays[ply] == null )
+			arrays[ply] = new int[MoveGenerator.MAX_MOVES];
+		return arrays[ply];
+	}
+}
@@ -1,42 +1,213 @@
 package com.stephengware.java.games.chess.bot;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 import com.stephengware.java.games.chess.bot.Bot;
 import com.stephengware.java.games.chess.state.State;
-import com.stephengware.java.games.chess.state.Board;
-import com.stephengware.java.games.chess.state.Piece;
 import com.stephengware.java.games.chess.state.Player;
 /**
- * An awesome chessbot which uses iterative deepening search to look ahead a maximum of 5 moves 
- * also take into account pieces' positions, potential movements and potential capture opportunities
+ * An awesome chessbot which uses iterative deepening search to look ahead as far as its time allows
+ * also take into account pieces' positions and potential movements; at the end of the search,
+ * the captures are searched until the position is quiet (quiescence search)
+ * 
+ * The search may run on several threads, in one of two ways...
+ * Lazy SMP: helper threads run the same iterative deepening on their own copy of the game and of the tree,
+ * sharing the transposition table with the main search. The game does not count the states of these copies,
+ * so each helper has a budget of its own, stopped as soon as the main search is over.
+ * Whatever a helper stores in the table speeds up the main search, which alone chooses the move.
+ * Young brothers wait: the main search splits the tree, once the eldest child of a node is searched
+ * the remaining children are searched in parallel on a ForkJoinPool, see SplitPoint.
+ * On a single thread both are the plain serial search.
+ * 
+ * Pondering: once a move is chosen, the opponent's reply is predicted from the principal variation
+ * and searched on a background thread while the opponent thinks. If the opponent plays it,
+ * the search of the next move finds the results in the transposition table.
+ * 
+ * The transposition table is kept from one move to the next, so the search of a move starts with
+ * what the search of the last one learned about the positions two plies deeper.
  * 
  * @author Hung L. Le
  */
 public class MyBot extends Bot {
 	// instance variables
-	HashMap<String,Integer> previousStatesMap; // the Hashmap that keeps track of the number of previous occurrence of a state
+	SearchContext context;	// the history, evaluation sums and scratch values of the main line of search
 	State rootState ; 	// the state at the root of the tree
 	Player mySide ; 	// the variable that keeps track of the current side
 	int depthLimit;		// the depth limit, used for iterative deepening
-	boolean stopSearching;	// set to true when searchLimit is reached
+	int lastDepth;		// the depth of the last iteration, MAX_DEPTH unless searching to a fixed depth
+	TimeManager clock;	// decides how long to search for a move, null when only the search budget limits it
+	volatile boolean stopSearching;	// set to true when searchLimit is reached
 	boolean captureTheKing;		// set to true when it's time to capture the king
-	double totalExtraFactor;	// the total of factors considered other than material score 
-	double bestCapture;	// the best capture value can be achieved, used for capture prediction 
+	SearchBudget budget;	// counts the states generated while searching for a move, shared by the young brothers wait threads
+	TranspositionTable transpositionTable;	// remembers the value of searched states, across iterations, transpositions and threads
+	MoveOrdering ordering;	// the killer, history and counter moves of this searcher, shared by the threads of a split search
+	MyBot[] helpers;	// the searchers run by the helper threads, empty when searching on one thread
+	ExecutorService helperThreads;	// runs the helpers, null when searching on one thread
+	ForkJoinPool splitPool;	// searches the younger brothers of split nodes, null unless searching with young brothers wait
+	MyBot ponderer;		// searches the predicted reply on the opponent's time, null when not pondering
+	ExecutorService ponderThread;	// runs the ponderer, null when not pondering
+	Future<GameTree> ponderSearch;	// the search of the ponderer, null when it is not pondering
+	State ponderedState;	// the state the ponderer searched a reply to, null when it is not pondering
+	int ponderedReply;	// the reply the ponderer searched
+	
+	/** debug mode: check the incremental evaluation against a full one at every leaf, run with -Dhlle.checkEvaluation=true */
+	private static final boolean CHECK_EVALUATION = Boolean.getBoolean("hlle.checkEvaluation");
+	
+	/** the number of search threads when none is given, run with -Dhlle.threads=N to change it */
+	private static final int DEFAULT_THREADS = Math.max(1, Integer.getInteger("hlle.threads", 1));
+	
+	/** the parallel search when none is given, run with -Dhlle.parallel=ybwc for young brothers wait instead of Lazy SMP */
+	private static final boolean DEFAULT_YOUNG_BROTHERS_WAIT = "ybwc".equals(System.getProperty("hlle.parallel"));
+	
+	/** ponder on the opponent's time, run with -Dhlle.ponder=true */
+	private static final boolean DEFAULT_PONDER = Boolean.getBoolean("hlle.ponder");
+	
+	/** nodes with fewer plies left to search than this are never split, their children are too small a job */
+	private static final int MIN_SPLIT_DEPTH = 2;
+	
+	/** the half width of the first aspiration window at the root, half a Pawn */
+	private static final double ASPIRATION_WINDOW = 5.0;
+	
+	/** the value of a King, the widest aspiration window */
+	private static final double PIECE_VALUE_KING = EvalAccumulator.MATERIAL[Bitboards.KING];
+	
+	/** the value of a draw by repetition: as bad as losing a King's worth of material, but still better than a mate */
+	private static final double DRAW_BY_REPETITION = -PIECE_VALUE_KING;
+	
+	/** the deepest iteration, only reached when neither the time nor the budget runs out first */
+	private static final int MAX_DEPTH = 64;
+	
+	/** the quiescence search stands pat this many plies past the horizon, whatever captures are left */
+	private static final int MAX_QUIESCENCE_PLY = 8;
+	
+	/** a capture is searched in quiescence only if it may raise the value to alpha within this margin, two Pawns */
+	private static final double DELTA_MARGIN = 20.0;
+	
+	/** the null move is only tried with at least this many plies left to search */
+	private static final int NULL_MOVE_MIN_DEPTH = 3;
+	
+	/** late move reductions: the first moves of a node are always searched to the full depth */
+	private static final int FULL_DEPTH_MOVES = 3;
+	
+	/** late move reductions: moves are only reduced with at least this many plies left to search */
+	private static final int REDUCTION_MIN_DEPTH = 3;
+	
+	/**
+	 * futility pruning: a quiet move changes no material, only the extra factors, which
+	 * evaluate() keeps below a Pawn either way, so one ply from the horizon a quiet move can
+	 * change the value by less than this
+	 */
+	private static final double FUTILITY_MARGIN = 10.0;
+	
+	/** razoring: nodes this many plies or fewer from the horizon may be razored */
+	private static final int RAZOR_DEPTH = 2;
+	
+	/** razoring: how far below alpha the material must be to go straight to the quiescence search, three Pawns */
+	private static final double RAZOR_MARGIN = 30.0;
+	
+	/** evaluate() halves the extra factors until they are below this, the value of a Pawn */
+	private static final double EXTRA_FACTOR_CAP = 10.0;
+	
+	/** the largest potential factor of each piece type: every square it attacks is empty */
+	private static final double[] MAX_POTENTIAL_FACTOR = { 0.0, 8 / 3.0, 13 / 3.0, 14 / 3.0, 27 / 2.0 / 3.0, 0.0 };
 
 
 	/**
 	 * Constructs a new chess bot named "HungLe"
 	 */
 	public MyBot() {
+		this(DEFAULT_THREADS, DEFAULT_YOUNG_BROTHERS_WAIT);
+	}
+	
+	
+	/**
+	 * Constructs a new chess bot named "HungLe" searching on a given number of threads with Lazy SMP
+	 * 
+	 * @param threads - the number of search threads, 1 for a single threaded search
+	 */
+	public MyBot(int threads) {
+		this(threads, false);
+	}
+	
+	
+	/**
+	 * Constructs a new chess bot named "HungLe" searching on a given number of threads
+	 * 
+	 * @param threads - the number of search threads, 1 for a single threaded search
+	 * @param youngBrothersWait - true to split the tree between the threads ("young brothers wait"),
+	 * 		false to run helper searches sharing the transposition table (Lazy SMP)
+	 */
+	public MyBot(int threads, boolean youngBrothersWait) {
+		
+		this(new TranspositionTable(20), new SearchBudget()); // 2^20 entries, 24 MB
+		
+		clock = TimeManager.fromSystemProperties();
+		
+		// the ponderer shares the table and the move ordering, but has a budget of its own
+		if ( DEFAULT_PONDER )
+		{
+			ponderer = new MyBot(transpositionTable, new SearchBudget());
+			ponderer.ordering = ordering;
+			ponderThread = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "hlle-ponder");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		if ( youngBrothersWait )
+		{
+			if ( threads > 1 )
+				splitPool = new ForkJoinPool(threads);
+			return;
+		}
+		
+		// the helpers share this bot's table, but search copies of the game the search limit does not count
+		// so like the ponderer they have a budget of their own
+		helpers = new MyBot[threads - 1];
+		for ( int i = 0; i < helpers.length; i++ )
+		{
+			helpers[i] = new MyBot(transpositionTable, new SearchBudget());
+		}
+		
+		if ( helpers.length > 0 )
+		{
+			helperThreads = Executors.newFixedThreadPool(helpers.length, runnable -> {
+				Thread thread = new Thread(runnable, "hlle-helper");
+				thread.setDaemon(true); // never keep the program alive
+				return thread;
+			});
+		}
+	}
+	
+	
+	/**
+	 * Constructs a searcher using a given table and budget, used for the helpers, the ponderer and the benchmarks
+	 * 
+	 * @param transpositionTable - the table to store results in
+	 * @param budget - the budget to charge generated states to
+	 */
+	MyBot(TranspositionTable transpositionTable, SearchBudget budget) {
 		
 		super("hlle");
 		
 		// set up needed variables
 		captureTheKing = false;
 		mySide = null;
-		previousStatesMap = new HashMap<String, Integer>();
+		lastDepth = MAX_DEPTH;
+		context = new SearchContext();
+		this.budget = budget;
+		this.transpositionTable = transpositionTable;
+		ordering = new MoveOrdering();
+		helpers = new MyBot[0];
 		
 	}
 	
@@ -56,25 +227,201 @@ public class MyBot extends Bot {
 			if ( mySide != null)
 			{
 				captureTheKing = false;
-				previousStatesMap.clear();
 			}
+			
+			// the stored values are those of the other side
+			this.transpositionTable.clear();
 		}
 		
-		// Record opponent's selected state for draw state checking
-		if ( state.toString() != "")
+		// the opponent has moved: stop pondering, what it found stays in the table
+		boolean ponderHit = this.stopPondering(state);
+		
+		// the killers of the last move are of no use any more, its history is still worth something
+		// the tables are aged once per move: the ponderer already aged them for the state it searched
+		if ( !ponderHit )
+			this.ordering.age();
+		for ( MyBot helper : this.helpers )
 		{
-			String stateName = state.toString().substring(state.toString().lastIndexOf(" "));
-			
-			if ( !this.previousStatesMap.containsKey(stateName))
+			helper.ordering.age();
+		}
+		
+		this.transpositionTable.newSearch(); // the entries of the last moves make way for this one's
+		this.budget.start(); // nothing generated yet
+		if ( this.clock != null )
+			this.clock.start(state.turn); // set the deadlines of this move
+		
+		// start the helpers, every other helper starts one ply deeper so they do not all search the same depths
+		// the game changes a board in place while it lists its moves, so two threads may never
+		// generate the moves of the same state: each helper searches a copy of the game of its own
+		List<Future<GameTree>> helperResults = new ArrayList<Future<GameTree>>();
+		List<Integer> gameMoves = this.helpers.length > 0 ? movesOf(state) : null;
+		for ( int i = 0; i < this.helpers.length; i++ )
+		{
+			MyBot helper = this.helpers[i];
+			int firstDepth = i % 2 == 0 ? 3 : 2;
+			helper.budget.start();
+			helperResults.add(this.helperThreads.submit(() -> {
+				
+				State copy = replay(gameMoves, helper.budget);
+				return copy == null ? null : helper.search(copy, firstDepth);
+			}));
+		}
+		
+		GameTree chosenNode;
+		if ( this.splitPool != null )
+			chosenNode = this.splitPool.invoke(ForkJoinTask.adapt(() -> this.search(state, 2)));
+		else
+			chosenNode = this.search(state, 2);
+		
+		// the main search is over, stop the helpers before returning
+		// they must not generate states once the game has moved on
+		this.budget.stop();
+		if ( this.clock != null )
+			this.clock.stop();
+		for ( MyBot helper : this.helpers )
+		{
+			helper.budget.stop();
+		}
+		for ( Future<GameTree> result : helperResults )
+		{
+			try
 			{
-				this.previousStatesMap.put(stateName, 1);
+				result.get();
 			}
-			else
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch ( ExecutionException e )
 			{
-				this.previousStatesMap.put(stateName, 2);
+				// a failed helper only means fewer entries in the table
 			}
 		}
 		
+		// search the opponent's most likely reply while waiting for it
+		State chosen = chosenNode.getState();
+		this.startPondering(chosen, TranspositionTable.move(this.transpositionTable.probe(tableKey(chosenNode))));
+		
+		// return the chosen next state
+		return chosen;
+		
+	}// end of chooseMove
+	
+	
+	/**
+	 * Start searching the state after the opponent's predicted reply, on the ponder thread
+	 * 
+	 * The game counts every state generated under its states, against the search limit of
+	 * whichever bot is choosing a move. So the ponderer never searches the game's own states,
+	 * it plays the game again from the start on a chain of states of its own.
+	 * 
+	 * @param chosen - the state this bot has chosen
+	 * @param reply - the opponent's best reply found by the search, Move.NULL if none
+	 */
+	private void startPondering(State chosen, int reply)
+	{
+		if ( this.ponderer == null || reply == Move.NULL || chosen.over )
+			return;
+		
+		MyBot searcher = this.ponderer;
+		searcher.budget.start();
+		searcher.ordering.age(); // the tables of this bot, get them ready for the state to come
+		this.ponderedState = chosen;
+		this.ponderedReply = reply;
+		
+		// read the game now, once the chosen state is returned the opponent generates its moves
+		List<Integer> gameMoves = movesOf(chosen);
+		this.ponderSearch = this.ponderThread.submit(() -> {
+			
+			State copy = replay(gameMoves, searcher.budget);
+			State predicted = copy == null ? null : Move.toState(copy, reply, searcher.budget);
+			if ( predicted == null || predicted.over )
+				return null;
+			
+			return searcher.search(predicted, 2);
+		});
+	}
+	
+	
+	/**
+	 * Stop pondering and wait for the ponderer to finish
+	 * if the opponent played the predicted reply, the table holds the ponderer's results for the search to come
+	 * 
+	 * @param state - the state the opponent has moved to
+	 * @return true if the ponderer searched the state the opponent has moved to
+	 */
+	private boolean stopPondering(State state)
+	{
+		if ( this.ponderSearch == null )
+			return false;
+		
+		this.ponderer.budget.stop();
+		try
+		{
+			this.ponderSearch.get();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch ( ExecutionException e )
+		{
+			// a failed ponder search only means fewer entries in the table
+		}
+		this.ponderSearch = null;
+		
+		boolean hit = state.previous == this.ponderedState && Move.between(this.ponderedState, state) == this.ponderedReply;
+		this.ponderedState = null;
+		return hit;
+	}
+	
+	
+	/**
+	 * @param state - the last state of a game
+	 * @return the moves of the game, the last one first
+	 */
+	private static List<Integer> movesOf(State state)
+	{
+		List<Integer> moves = new ArrayList<Integer>();
+		for ( State current = state; current.previous != null; current = current.previous )
+		{
+			moves.add(Move.between(current.previous, current));
+		}
+		return moves;
+	}
+	
+	
+	/**
+	 * Play the moves of a game again from the initial state
+	 * 
+	 * @param moves - the moves of the game, the last one first, see movesOf()
+	 * @param budget - the budget the new states are charged to
+	 * @return a state with the same board and history as the last state of the game, but none of its ancestors,
+	 * 		null if a move could not be played again
+	 */
+	private static State replay(List<Integer> moves, SearchBudget budget)
+	{
+		State copy = new State();
+		for ( int i = moves.size() - 1; i >= 0 && copy != null; i-- )
+		{
+			copy = Move.toState(copy, moves.get(i), budget);
+		}
+		return copy;
+	}
+	
+	
+	/**
+	 * Iterative deepening search from a given state
+	 * 
+	 * @param state - the state to search from
+	 * @param firstDepth - the depth limit of the first iteration
+	 * @return the node of the best child found, or the root if no iteration was completed
+	 */
+	private GameTree search(State state, int firstDepth) {
+		
+		// Record the positions of the game so far for draw state checking
+		this.context.history.reset(state);
+		
 		
 		
 		/**
@@ -82,16 +429,20 @@ public class MyBot extends Bot {
 		 */
 		this.rootState = state; // save the starting state
 		mySide = state.player; 	// keep track of what side I am: BLACK or WHITE
-		depthLimit = 2; // starts at depth 2
+		depthLimit = firstDepth; // starts at depth 2 (or 3 for some helpers)
 		this.stopSearching = false; // searching will halt when this flag is set
 		
 		/**
 		 *  create a GameTree object with the current state as a parameter 
 		 *  GameTree is basically a state, only with much more relevant information
 		 */
-		GameTree root = new GameTree(state);
+		GameTree root = new GameTree(state, this.budget);
+		
+		// the evaluation sums of the root, updated as the search moves down from it
+		this.context.accumulator.reset(root.getBitboards(), mySide);
 		
 		GameTree chosenNode = root; 	// the node that holds the state to be chosen 
+		double previousScore = Double.NaN;	// the value of the previous iteration, for the aspiration window
 		
 		// Loop infinitely until a result is found
 		while ( true )
@@ -100,7 +451,10 @@ public class MyBot extends Bot {
 			 *  THE EVALUATED VALUE IS ALWAYS LARGER AS THIS BOT BETTER OFF
 			 *  therefore, this bot always start with findMax
 			 */
-			findMax(root, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,0);
+			long iterationStart = System.nanoTime();
+			int nodesBefore = this.budget.used();
+			
+			double score = this.searchRoot(root, previousScore);
 			
 			
 			/**
@@ -111,13 +465,20 @@ public class MyBot extends Bot {
 			 * Also take the node with the highest value as a return
 			 * this is the best state found in this iteration
 			 */
-			GameTree maxNode = root.reorderGameTree(this.previousStatesMap);
+			GameTree maxNode = root.reorderGameTree(this.context.history);
 			
 
 
 			// failed search: stopSearching is set when search limit is reached
 			if ( this.stopSearching)
 			{
+				// not even the first iteration is complete: the best child searched so far, or any child, beats no move at all
+				if ( chosenNode == root )
+				{
+					chosenNode = maxNode;
+					if ( chosenNode == null && root.hasNextChild() )
+						chosenNode = root.getNextChild();
+				}
 				break;
 			}
 			
@@ -126,36 +487,109 @@ public class MyBot extends Bot {
 			{
 				// update the chosenNode
 				chosenNode = maxNode;
+				previousScore = score;
 			}
 			
 			
-			// if depthLimit = 5, stop the loop, this bot is designed to reach depth 5 only
-			if ( depthLimit ==  5 )
+			if ( depthLimit >= this.lastDepth )
 			{
 				break;
 			}
+			
+			// ask the clock whether the next iteration can finish in time
+			// helpers have no clock, they go on until the main search stops them
+			if ( this.clock != null )
+			{
+				this.clock.iterationDone(System.nanoTime() - iterationStart, this.budget.used() - nodesBefore,
+						chosenNode.getMove(), score);
+				
+				if ( !this.clock.startNextIteration(this.budget.remaining()) )
+				{
+					break;
+				}
+			}
 
 			
 			// update the depthLimit for iterative deepening
-			// the iterations will go with depth 2, then 4, then 5
-			depthLimit += depthLimit < 4 ? 2 : 1;
+			depthLimit++;
 		}
 		
+		return chosenNode;
+		
+	}// end of search
+	
+
+	/**
+	 * Search a state to a fixed depth, the iterations from depth 2 up to the given one, with no clock.
+	 * Nothing learned by an earlier search is kept, so a state is always searched the same way:
+	 * this is the search the benchmarks measure.
+	 * 
+	 * @param state - the state to search from
+	 * @param depth - the depth limit of the last iteration
+	 * @return the node of the best child found
+	 */
+	GameTree searchToDepth(State state, int depth) {
 		
-		// record the chosen state for draw game checking
-		if ( !this.previousStatesMap.containsKey(chosenNode.stateName))
+		this.transpositionTable.clear();
+		this.ordering = new MoveOrdering();
+		this.budget.start();
+		this.lastDepth = depth;
+		try
 		{
-			this.previousStatesMap.put(chosenNode.stateName, 1);
+			return this.search(state, Math.min(2, depth));
 		}
-		else
+		finally
 		{
-			this.previousStatesMap.put(chosenNode.stateName, 2);
+			this.lastDepth = MAX_DEPTH;
 		}
+	}
+	
+
+	/**
+	 * Search the root with an aspiration window: a narrow window centred on the value of the
+	 * previous iteration, which prunes much more than the full window as long as the value
+	 * does not change much. When the value falls outside, the window is widened and the root searched again.
+	 * 
+	 * @param root - the root of the tree
+	 * @param previousScore - the value of the previous iteration, NaN for the first iteration
+	 * @return the value of the root
+	 */
+	private double searchRoot(GameTree root, double previousScore)
+	{
+		double alpha = Double.NEGATIVE_INFINITY;
+		double beta = Double.POSITIVE_INFINITY;
+		double delta = ASPIRATION_WINDOW;
 		
-		// return the chosen next state
-		return chosenNode.getState();
+		// the first iteration, a mate or a draw: nothing to centre the window on
+		if ( !Double.isNaN(previousScore) && !Double.isInfinite(previousScore) )
+		{
+			alpha = previousScore - delta;
+			beta = previousScore + delta;
+		}
 		
-	}// end of chooseMove
+		while ( true )
+		{
+			double score = findMax(root, alpha, beta, 0, this.context);
+			
+			// a mate is found, or the window cannot be widened on the side the value fell out of
+			boolean failLow = score <= alpha;
+			if ( this.stopSearching || (score > alpha && score < beta)
+					|| (failLow ? alpha == Double.NEGATIVE_INFINITY : beta == Double.POSITIVE_INFINITY) )
+			{
+				return score;
+			}
+			
+			// widen the side the value fell out of, give up the window once it is as wide as a King
+			delta *= 4;
+			if ( score <= alpha )
+				alpha = delta > PIECE_VALUE_KING ? Double.NEGATIVE_INFINITY : previousScore - delta;
+			else
+				beta = delta > PIECE_VALUE_KING ? Double.POSITIVE_INFINITY : previousScore + delta;
+			
+			// get the root ready to be searched again, with the children searched so far first
+			root.reorderGameTree(this.context.history);
+		}
+	}
 	
 
 	/**
@@ -165,49 +599,142 @@ public class MyBot extends Bot {
 	 * @param tree the node whose children need to be expanded
 	 * @param alpha the highest utility value discovered so far in this branch of the tree (i.e. best for X)
 	 * @param beta the lowest utility value discovered so far in this branch of the tree (i.e. best for O)
+	 * @param context the line of search the node belongs to
 	 * @return the utility value of the node with the highest minimum utility
 	 */
-	private double findMax(GameTree tree, double alpha, double beta, int depth) {
+	private double findMax(GameTree tree, double alpha, double beta, int depth, SearchContext context) {
 		
 		
-		// stop searching when stopSearching flag is set
-		if ( this.stopSearching == true)
+		// stop searching when stopSearching flag is set, or when a split above this node has been cut off
+		if ( this.stopSearching == true || context.cancelled())
 		{
 			return Double.NEGATIVE_INFINITY;
 		}
 		
-		// Make sure the number of expanded states doesn't exceed 500,000
-		else if ( this.rootState.countDescendants() > 499000)
+		// Make sure the number of expanded states doesn't exceed the search limit, nor the time
+		else if ( this.budget.exhausted() || this.outOfTime())
 		{
 			// set the stopSearching flag 
 			this.stopSearching = true;
 			return Double.NEGATIVE_INFINITY;
 		}
+		
+		// draw by threefold = BAD, the state may repeat the game or the path searched so far
+		if ( depth > 0 && tree.checkDrawState(tree, context.history))
+		{
+			context.repetitions++;
+			return DRAW_BY_REPETITION;
+		}
+		int repetitions = context.repetitions; // any repetition below this node makes its value depend on the path
+		
+		/**
+		 * Look this state up in the transposition table
+		 * if it has already been searched deep enough, the stored value is used instead of searching again
+		 * (except at the root, whose children values are needed)
+		 * otherwise the stored best move is expanded first
+		 */
+		long hash = tableKey(tree);
+		int hashMove = Move.NULL;
+		long entry = this.transpositionTable.probe(hash);
+		int bound = TranspositionTable.bound(entry);
+		
+		if ( bound != 0 )
+		{
+			double score = this.transpositionTable.score(hash, entry);
+			
+			// a NaN score means another thread replaced the entry, only its move is used then
+			if ( depth > 0 && !Double.isNaN(score) && TranspositionTable.depth(entry) >= depthLimit - depth )
+			{
+				if ( bound == TranspositionTable.EXACT )
+					return score;
+				if ( bound == TranspositionTable.LOWER && score >= beta )
+					return score;
+				if ( bound == TranspositionTable.UPPER && score <= alpha )
+					return score;
+			}
+			
+			hashMove = TranspositionTable.move(entry);
+		}
 
-		// return when depthLimit is reached
-		if(depth == depthLimit)
+		// when depthLimit is reached, search the captures until the position is quiet
+		// a reduced search may jump past it
+		if(depth >= depthLimit)
 		{	
-			return evaluate(tree.getState(), true);
+			double value = this.quiesce(tree, true, alpha, beta, context);
+			this.storeResult(tree, depth, value <= alpha ? TranspositionTable.UPPER : value >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT, value, null, repetitions, context);
+			return value;
+		}
+		
+		// far below alpha close to the horizon, only the captures may save the node
+		double razorValue = this.razor(tree, true, alpha, beta, depth, context);
+		if ( razorValue <= alpha )
+		{
+			return razorValue;
+		}
+		
+		// this state is now on the path being searched (the root is already in the history)
+		if ( depth > 0 )
+			context.history.push(tree.getBoardHash(), tree.isIrreversible());
+		
+		// let the opponent move twice: if this bot is still above beta, the node is cut off
+		// a mate behind a pass proves nothing, an infinite value cuts nothing off
+		double nullValue = this.searchNullMove(tree, true, alpha, beta, depth, context);
+		if ( !Double.isInfinite(nullValue) && nullValue >= beta && !this.stopSearching && !context.cancelled() )
+		{
+			if ( depth > 0 )
+				context.history.pop();
+			return nullValue;
 		}
 		
+		tree.setHashMove(hashMove);
+		tree.orderChildren(this.ordering, depth, context.moveStack);
+		double alphaOriginal = alpha;
+		
+		// one ply from the horizon, the quiet moves cannot raise the value to alpha
+		double futilityValue = this.futilityValue(tree, true, alpha, beta, depth, context);
+		if ( !Double.isNaN(futilityValue) )
+			tree.skipQuietMoves();
+		GameTree bestChild = null;
+		
 		// If depth limit is not reached, then we need to expand all of the tree's
 		// children and find the one with the highest minimum utility value.
 		// Start with the lowest possible number, double#NEGATIVE_INFINITY and
 		// work our way up from there.
 		double max = Double.NEGATIVE_INFINITY;
+		int moveNumber = 0;
 		
 		// If the tree still has more children
 		while(tree.hasNextChild()) {
 			
 			// get the next unexplored child node with GameTree#getNextChild().
 			GameTree child = tree.getNextChild();
+			moveNumber++;
 
 			// Find the lowest possible utility value the child node can have.
-			child.value = findMin(child, alpha, beta, depth+1);
+			context.accumulator.push(tree.getBitboards(), child.getBitboards());
+			if ( this.canReduce(tree, child, depth, moveNumber) )
+			{
+				child.value = this.searchReduced(child, true, alpha, beta, depth+1, context);
+			}
+			else
+			{
+				child.value = this.searchChild(child, true, bestChild == null, alpha, beta, depth+1, context);
+			}
+			context.accumulator.pop();
+			
+			// the budget ran out below this child, stop generating any more states
+			if ( this.stopSearching || context.cancelled() )
+			{
+				break;
+			}
 
 
 			// Update 'max' based on this new information.  'max' should always hold the
 			// largest value we have discovered so far.
+			if ( bestChild == null || child.value > max )
+			{
+				bestChild = child;
+			}
 			max = Math.max(max, child.value);
 			
 			// The parameter 'beta' holds the lowest utility value that has been
@@ -218,12 +745,49 @@ public class MyBot extends Bot {
 			// somewhere else that has already been explored.
 			if(max >= beta) // pruned
 			{
-				return max + 1.0; // IMPORTANT: return a higher value to ensure that findMin won't choose pruned branch
+				if ( depth > 0 )
+					context.history.pop();
+				this.recordCutoff(tree, bestChild, depth);
+				this.storeResult(tree, depth, TranspositionTable.LOWER, max, bestChild, repetitions, context);
+				return max; // fail-soft: max is a lower bound of the true value
 			}		
 			
 			// Update alpha to be the highest value discovered so far.
 			alpha = Math.max(alpha, max);
+			
+			// the eldest child is done, search its younger brothers in parallel
+			if ( this.canSplit(depth) && tree.hasNextChild() )
+			{
+				SplitPoint split = new SplitPoint(context.splitPoint, true, alpha, beta, max, bestChild);
+				this.searchYoungBrothers(tree, split, depth, context);
+				
+				if ( this.stopSearching || context.cancelled() )
+				{
+					break;
+				}
+				
+				max = split.best();
+				bestChild = split.bestChild();
+				if ( split.isCutoff() ) // pruned
+				{
+					if ( depth > 0 )
+						context.history.pop();
+					this.recordCutoff(tree, bestChild, depth);
+					this.storeResult(tree, depth, TranspositionTable.LOWER, max, bestChild, repetitions, context);
+					return max;
+				}
+				break;
+			}
 		}
+		
+		if ( depth > 0 )
+			context.history.pop();
+		
+		// the skipped quiet moves are worth at most the futility value
+		if ( !Double.isNaN(futilityValue) )
+			max = Math.max(max, futilityValue);
+		
+		this.storeResult(tree, depth, max <= alphaOriginal ? TranspositionTable.UPPER : TranspositionTable.EXACT, max, bestChild, repetitions, context);
 		return max;
 	}// end of findMax
 	
@@ -237,20 +801,21 @@ public class MyBot extends Bot {
 	 * @param tree the node whose children need to be expanded
 	 * @param alpha the highest utility value discovered so far in this branch of the tree (i.e. best for X)
 	 * @param beta the lowest utility value discovered so far in this branch of the tree (i.e. best for O)
+	 * @param context the line of search the node belongs to
 	 * @return the utility value of the node with the lowest maximum utility
 	 */
-	private double findMin(GameTree tree, double alpha, double beta, int depth) {
+	private double findMin(GameTree tree, double alpha, double beta, int depth, SearchContext context) {
 		// This method is simply the opposite of #findMax.
 		
 		
-		// stop searching when stopSearching flag is set
-		if ( this.stopSearching == true)
+		// stop searching when stopSearching flag is set, or when a split above this node has been cut off
+		if ( this.stopSearching == true || context.cancelled())
 		{
 			return Double.NEGATIVE_INFINITY;
 		}	
 				
-		// Make sure the number of expanded states doesn't exceed 500,000
-		if ( this.rootState.countDescendants() > 499000)
+		// Make sure the number of expanded states doesn't exceed the search limit, nor the time
+		if ( this.budget.exhausted() || this.outOfTime())
 		{
 			// set the stopSearching flag 
 			this.stopSearching = true;
@@ -271,29 +836,107 @@ public class MyBot extends Bot {
 					return Double.NEGATIVE_INFINITY; 
 			}
 			
-			// draw by threefold = BAD
-			if ( tree.checkDrawState(tree, previousStatesMap))
+		}
+		
+		// draw by threefold = BAD, the state may repeat the game or the path searched so far
+		if ( tree.checkDrawState(tree, context.history))
+		{
+			context.repetitions++;
+			return DRAW_BY_REPETITION;
+		}
+		int repetitions = context.repetitions; // any repetition below this node makes its value depend on the path
+		
+		
+		// Look this state up in the transposition table, same as in findMax
+		long hash = tableKey(tree);
+		long entry = this.transpositionTable.probe(hash);
+		int bound = TranspositionTable.bound(entry);
+		int hashMove = Move.NULL;
+		
+		if ( bound != 0 )
+		{
+			double score = this.transpositionTable.score(hash, entry);
+			
+			if ( !Double.isNaN(score) && TranspositionTable.depth(entry) >= depthLimit - depth )
 			{
-				return Double.NEGATIVE_INFINITY;
+				if ( bound == TranspositionTable.EXACT )
+					return score;
+				if ( bound == TranspositionTable.UPPER && score <= alpha )
+					return score;
+				if ( bound == TranspositionTable.LOWER && score >= beta )
+					return score;
 			}
 			
+			hashMove = TranspositionTable.move(entry);
+		}
+		
+		
+		// when depthLimit is reached, search the captures until the position is quiet
+		// a reduced search may jump past it
+		if(depth >= depthLimit)
+		{
+			double value = this.quiesce(tree, false, alpha, beta, context);
+			this.storeResult(tree, depth, value <= alpha ? TranspositionTable.UPPER : value >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT, value, null, repetitions, context);
+			return value;
+		}
+		
+		// far above beta close to the horizon, only the captures may save the node for the opponent
+		double razorValue = this.razor(tree, false, alpha, beta, depth, context);
+		if ( razorValue >= beta )
+		{
+			return razorValue;
 		}
 		
+		// this state is now on the path being searched
+		context.history.push(tree.getBoardHash(), tree.isIrreversible());
 		
-		// return when depthLimit is reached
-		if(depth == depthLimit)
+		// let this bot move twice: if the opponent is still below alpha, the node is cut off
+		// a mate behind a pass proves nothing, an infinite value cuts nothing off
+		double nullValue = this.searchNullMove(tree, false, alpha, beta, depth, context);
+		if ( !Double.isInfinite(nullValue) && nullValue <= alpha && !this.stopSearching && !context.cancelled() )
 		{
-			return evaluate(tree.getState(), true);
+			context.history.pop();
+			return nullValue;
 		}
 		
+		tree.setHashMove(hashMove);
+		tree.orderChildren(this.ordering, depth, context.moveStack);
+		double betaOriginal = beta;
+		
+		// one ply from the horizon, the opponent's quiet moves cannot lower the value to beta
+		double futilityValue = this.futilityValue(tree, false, alpha, beta, depth, context);
+		if ( !Double.isNaN(futilityValue) )
+			tree.skipQuietMoves();
+		GameTree bestChild = null;
+		
 		double min = Double.POSITIVE_INFINITY;
+		int moveNumber = 0;
 		while(tree.hasNextChild()) {
 			GameTree child = tree.getNextChild();
-			
+			moveNumber++;
 
-			child.value = findMax(child, alpha, beta, depth+1);
+			context.accumulator.push(tree.getBitboards(), child.getBitboards());
+			if ( this.canReduce(tree, child, depth, moveNumber) )
+			{
+				child.value = this.searchReduced(child, false, alpha, beta, depth+1, context);
+			}
+			else
+			{
+				child.value = this.searchChild(child, false, bestChild == null, alpha, beta, depth+1, context);
+			}
+			context.accumulator.pop();
+			
+			// the budget ran out below this child, stop generating any more states
+			if ( this.stopSearching || context.cancelled() )
+			{
+				break;
+			}
 			
 			
+			if ( bestChild == null || child.value < min )
+			{
+				bestChild = child;
+			}
 			min = Math.min(min, child.value);
 			// The parameter 'alpha' holds the highest utility value that has been
 			// discovered so far in this branch of the game tree.  We are currently
@@ -303,733 +946,1086 @@ public class MyBot extends Bot {
 			// else that has already been explored.
 			if(min <= alpha)
 			{
-				return min - 1.0; // return a lower value than min to ensure that max won't choose pruned branches 
+				context.history.pop();
+				this.recordCutoff(tree, bestChild, depth);
+				this.storeResult(tree, depth, TranspositionTable.UPPER, min, bestChild, repetitions, context);
+				return min; // fail-soft: min is an upper bound of the true value
 			}
 			// Update beta to be the lowest value discovered so far.
 			beta = Math.min(beta, min);
+			
+			// the eldest child is done, search its younger brothers in parallel
+			if ( this.canSplit(depth) && tree.hasNextChild() )
+			{
+				SplitPoint split = new SplitPoint(context.splitPoint, false, alpha, beta, min, bestChild);
+				this.searchYoungBrothers(tree, split, depth, context);
+				
+				if ( this.stopSearching || context.cancelled() )
+				{
+					break;
+				}
+				
+				min = split.best();
+				bestChild = split.bestChild();
+				if ( split.isCutoff() )
+				{
+					context.history.pop();
+					this.recordCutoff(tree, bestChild, depth);
+					this.storeResult(tree, depth, TranspositionTable.UPPER, min, bestChild, repetitions, context);
+					return min;
+				}
+				break;
+			}
 		}
+		
+		context.history.pop();
+		
+		// the skipped quiet moves are worth at least the futility value
+		if ( !Double.isNaN(futilityValue) )
+			min = Math.min(min, futilityValue);
+		
+		this.storeResult(tree, depth, min >= betaOriginal ? TranspositionTable.LOWER : TranspositionTable.EXACT, min, bestChild, repetitions, context);
 		return min;
 	}// end of findMin
 	
 	
 	/**
-	 * Evaluate a game state
-	 * The better the state is for THIS BOT, the larger the evaluated value, and vice versa
+	 * Search a child with principal variation search
+	 * the first child of a node is expected to be the best, it is searched with the full window.
+	 * Every other child is first searched with a null window, which only proves it is no better
+	 * than the best so far at a fraction of the cost. Only a child that turns out better is
+	 * searched again with the full window, to get its value.
 	 * 
-	 * @param state - the state to be evaluated
-	 * @param withExtraFactor - false : return only material score, true : return material score plus additional factors
-	 * @return the evaluated value for the said state 
+	 * @param child - the child to search
+	 * @param maximizing - true if the parent is a node of findMax, so the child is one of findMin
+	 * @param first - true for the first child of the parent
+	 * @param alpha - the parent's alpha
+	 * @param beta - the parent's beta
+	 * @param depth - the depth of the child
+	 * @param context - the line of search the child belongs to
+	 * @return the value of the child
 	 */
-	private double evaluate(State state, boolean withExtraFactor)
+	private double searchChild(GameTree child, boolean maximizing, boolean first, double alpha, double beta, int depth, SearchContext context)
 	{
-		
-		// an iterator that holds the pieces currently present on the board 
-		Iterator<Piece> currentPieces = state.board.iterator();
-				
-		// the value to be returned
-		double value = 0.0;
-		
-		// the variable that holds the sum of all extra factors other than material score
-		// value of this variable will be updated by the getPieceValue() method if the withExtraFactor flag is set
-		this.totalExtraFactor = 0.0;
-		
-		// holds the value of the best piece can be captured by the player is this state
-		this.bestCapture = 0.0;
-		
-		// the piece to be considered
-		Piece piece = null;
-		
-		// loop through all the pieces on the board, friends or foes
-		while ( currentPieces.hasNext() )
+		// the window is already a null window, or the child is the principal variation
+		if ( first || Math.nextUp(alpha) >= beta )
 		{
-			piece = currentPieces.next();
-			
-			// call method getPieceValue() to evaluate the value of a given piece
-			
-			// ADD the value of MY pieces to the total value
-			if ( piece.player.equals(this.mySide))
-				value += this.getPieceValue(piece, state.turn, state, withExtraFactor);
-			
-			// SUBTRACT the value of OPPONENT's pieces from the total value
-			else
-				value -= this.getPieceValue(piece, state.turn, state, withExtraFactor);
+			return maximizing ? findMin(child, alpha, beta, depth, context) : findMax(child, alpha, beta, depth, context);
 		}
 		
-		// return the piece value plus the castling Factor 
-		//( the beneficial factor where castling occurs for friendly King )
-		double castlingFactor = state.player.equals(mySide) ? this.getCastlingFactor(state) : 0.0 ;
-		
-		if ( withExtraFactor )
+		double value;
+		if ( maximizing )
+		{
+			// can the child be better than alpha?
+			value = findMin(child, alpha, Math.nextUp(alpha), depth, context);
+			if ( value > alpha && value < beta && !this.stopSearching && !context.cancelled() )
+			{
+				child.restart();
+				value = findMin(child, alpha, beta, depth, context);
+			}
+		}
+		else
 		{
-			this.totalExtraFactor += castlingFactor;
+			// can the child be better than beta?
+			value = findMax(child, Math.nextDown(beta), beta, depth, context);
+			if ( value < beta && value > alpha && !this.stopSearching && !context.cancelled() )
+			{
+				child.restart();
+				value = findMax(child, alpha, beta, depth, context);
+			}
+		}
+		return value;
+	}
+	
+	
+	/**
+	 * Search a late quiet child with a late move reduction: it is searched one ply shallower
+	 * with a null window first, and fully (see searchChild) only if it beats the bound of its node
+	 * 
+	 * @param child - the child to search, see canReduce
+	 * @param maximizing - true if the child's parent is a node of findMax
+	 * @param alpha - the alpha of the parent
+	 * @param beta - the beta of the parent
+	 * @param depth - the depth of the child
+	 * @param context - the line of search the child belongs to
+	 * @return the value of the child
+	 */
+	private double searchReduced(GameTree child, boolean maximizing, double alpha, double beta, int depth, SearchContext context)
+	{
+		double value;
+		if ( maximizing )
+		{
+			// can the child be better than alpha?
+			value = findMin(child, alpha, Math.nextUp(alpha), depth+1, context);
+			if ( value <= alpha )
+				return value;
+		}
+		else
+		{
+			// can the child be better than beta?
+			value = findMax(child, Math.nextDown(beta), beta, depth+1, context);
+			if ( value >= beta )
+				return value;
 		}
 		
-		// extra factor cannot be too high as to avoid the loss of a piece just for a better position
-		// ==> make sure it is no larger than 10.0, which is the value of a Pawn
-		while(Math.abs(this.totalExtraFactor) >= 10.0)
-			this.totalExtraFactor *= 0.5;
+		if ( this.stopSearching || context.cancelled() )
+			return value;
 		
-		// the capture value is POSITIVE if it's my turn and NEGATIVE if it's opponent's turn
-		// the capture value is updated by the findBestCapture method called by getPieceValue
-		this.bestCapture = state.player.equals(this.mySide) ? this.bestCapture : -this.bestCapture ;
+		child.restart();
+		return this.searchChild(child, maximizing, false, alpha, beta, depth, context);
+	}
+	
+	
+	/**
+	 * Null-move pruning: search the node as if the side to move passed, with a reduced depth
+	 * and a null window. Passing is almost always worse than the best move, so if the side
+	 * to move still gets past the bound after passing, the node is sure to get past it
+	 * and need not be searched.
+	 * 
+	 * That fails in zugzwang, where every move is worse than passing. Zugzwang is common
+	 * when a side has nothing but its King and Pawns, so no null move is made then,
+	 * nor when in check.
+	 * 
+	 * The pass is made in the position of the line of search, not in the game tree:
+	 * a pass is no move of the game, so the positions behind it must not count towards
+	 * its draws nor be stored in the transposition table.
+	 * 
+	 * @param tree - the node
+	 * @param maximizing - true for a node of findMax, false for findMin
+	 * @param alpha - the node's alpha
+	 * @param beta - the node's beta
+	 * @param depth - the depth of the node
+	 * @param context - the line of search the node belongs to
+	 * @return the value of the null move search, NaN if no null move was searched
+	 */
+	private double searchNullMove(GameTree tree, boolean maximizing, double alpha, double beta, int depth, SearchContext context)
+	{
+		State state = tree.getState();
+		int remaining = depthLimit - depth;
 		
+		if ( depth == 0 || remaining < NULL_MOVE_MIN_DEPTH || state.check
+				|| (maximizing ? beta == Double.POSITIVE_INFINITY : alpha == Double.NEGATIVE_INFINITY) )
+		{
+			return Double.NaN;
+		}
 		
-		// return material score plus all other factor
-		return value + this.totalExtraFactor+ this.bestCapture;	
-	}// end of evaluate
+		// zugzwang guard: the side to move needs a piece other than Pawns and the King
+		Bitboards boards = tree.getBitboards();
+		long pieces = boards.occupiedBy(state.player)
+				& ~boards.pieces[Bitboards.pieceCode(Bitboards.PAWN, state.player)]
+				& ~boards.pieces[Bitboards.pieceCode(Bitboards.KING, state.player)];
+		if ( pieces == 0 )
+		{
+			return Double.NaN;
+		}
+		
+		// passing only helps when the material is already past the bound
+		int material = context.accumulator.material();
+		if ( maximizing ? material < beta : material > alpha )
+		{
+			return Double.NaN;
+		}
+		
+		// the deeper the node, the more the null move search is reduced
+		int reduction = remaining > 6 ? 3 : 2;
+		
+		// the pass leaves the board as it is, so the accumulator needs no push
+		Position position = context.position;
+		position.reset(tree);
+		position.makeNull();
+		this.budget.countQuiescence();
+		double value = maximizing ? this.nullSearchMin(position, Math.nextDown(beta), beta, remaining-1-reduction, context)
+				: this.nullSearchMax(position, alpha, Math.nextUp(alpha), remaining-1-reduction, context);
+		position.unmake();
+		
+		return value;
+	}
 	
 	
 	/**
-	 * Evaluate value of the given piece, including its material score and
-	 * a number of other factors: positioning factor, potential move & capture factor...
+	 * Search a position behind a pass where this bot is to move: every move down to the
+	 * depth left, then the captures of the quiescence search. Nothing is stored in the
+	 * transposition table.
 	 * 
-	 * @param piece - the piece to be evaluated
-	 * @param turn  - the turn number, this affects how different factor is adjusted
-	 * @param state - the current state to be considered
-	 * @param withExtraFactor - false : return only material score, true : return material score plus additional factors
-	 * @return the value of the piece
+	 * @param position - the position to search, left as it was on return
+	 * @param alpha - the highest value discovered so far in this branch of the tree
+	 * @param beta - the lowest value discovered so far in this branch of the tree
+	 * @param depthLeft - the number of plies left to search every move
+	 * @param context - the line of search the position belongs to
+	 * @return the value of the position
 	 */
-	private double getPieceValue( Piece piece, int turn, State state, boolean withExtraFactor)
+	private double nullSearchMax(Position position, double alpha, double beta, int depthLeft, SearchContext context)
 	{
-		double value = 0.0;
+		if ( depthLeft <= 0 )
+		{
+			return this.quiesceMax(position, alpha, beta, 0, context);
+		}
+		if ( this.stopSearching || context.cancelled() )
+		{
+			return Double.NEGATIVE_INFINITY;
+		}
+		else if ( this.budget.exhausted() || this.outOfTime() )
+		{
+			this.stopSearching = true;
+			return Double.NEGATIVE_INFINITY;
+		}
 		
-		// the name of the piece
-		String pieceName = "";
+		// check mate or stale mate, both are BAD
+		if ( position.isOver() )
+		{
+			return Double.NEGATIVE_INFINITY;
+		}
 		
-		// adjust the rank so relative rank are the same for Black and White pieces
-		int adjustedRank = piece.player.toString().equals("WHITE")? piece.rank : (7 - piece.rank);
+		int[] moves = context.moveStack.moves(position.getLevel());
+		int[] scores = context.moveStack.scores(position.getLevel());
+		int count = position.listMoves(this.ordering, position.getLevel(), moves, scores);
 		
-		switch (piece.toString())
+		double max = Double.NEGATIVE_INFINITY;
+		for ( int i = 0; i < count; i++ )
 		{
-			case "P":
-				value = 10.0;
-				pieceName = "Pawn";
-				break;
-			case "R":
-				value = 50.0;
-				pieceName = "Rook";
-				break;
-			case "N":
-				value = 30.0;
-				pieceName = "Knight";
-				break;
-			case "B":
-				value = 30.0;
-				pieceName = "Bishop";
-				break;
-			case "Q":
-				value = 90.0;
-				pieceName = "Queen";
-				break;
-			case "K":
-				pieceName = "King";
-				value = 100.0;
+			int move = MoveOrdering.selectBest(moves, scores, i, count);
+			
+			context.accumulator.push(position.getBitboards(), move);
+			position.make(move);
+			this.budget.countQuiescence();
+			double value = this.nullSearchMin(position, alpha, beta, depthLeft-1, context);
+			position.unmake();
+			context.accumulator.pop();
+			
+			if ( this.stopSearching || context.cancelled() )
+			{
 				break;
+			}
+			
+			max = Math.max(max, value);
+			if ( max >= beta )
+			{
+				return max;
+			}
+			alpha = Math.max(alpha, max);
+		}
+		return max;
+	}
+	
+	
+	/**
+	 * Search a position behind a pass where the opponent is to move, the opposite of nullSearchMax
+	 * 
+	 * @param position - the position to search, left as it was on return
+	 * @param alpha - the highest value discovered so far in this branch of the tree
+	 * @param beta - the lowest value discovered so far in this branch of the tree
+	 * @param depthLeft - the number of plies left to search every move
+	 * @param context - the line of search the position belongs to
+	 * @return the value of the position
+	 */
+	private double nullSearchMin(Position position, double alpha, double beta, int depthLeft, SearchContext context)
+	{
+		if ( depthLeft <= 0 )
+		{
+			return this.quiesceMin(position, alpha, beta, 0, context);
+		}
+		if ( this.stopSearching || context.cancelled() )
+		{
+			return Double.NEGATIVE_INFINITY;
+		}
+		else if ( this.budget.exhausted() || this.outOfTime() )
+		{
+			this.stopSearching = true;
+			return Double.NEGATIVE_INFINITY;
 		}
 		
+		// opponent loses by check mate = GOOD, draw by stale mate = BAD
+		if ( position.isOver() )
+		{
+			return position.isCheck() ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+		}
 		
-		/**
-		 *  If withExtraFactor flag is set
-		 *  add all the calculated extra factor to the totalExtraFactor sum
-		 *  
-		 *  positionFactor: consider the position of the piece
-		 *  potentialFactor: consider what the piece can do in the next turn
-		 *  openingFactor: encourages the piece to come into the game instead of idling
-		 */
+		int[] moves = context.moveStack.moves(position.getLevel());
+		int[] scores = context.moveStack.scores(position.getLevel());
+		int count = position.listMoves(this.ordering, position.getLevel(), moves, scores);
 		
-		if ( withExtraFactor)
+		double min = Double.POSITIVE_INFINITY;
+		for ( int i = 0; i < count; i++ )
 		{
-			// ADD the extra factors of MY pieces to the total extra factors
-			if ( piece.player.equals(this.mySide))
+			int move = MoveOrdering.selectBest(moves, scores, i, count);
+			
+			context.accumulator.push(position.getBitboards(), move);
+			position.make(move);
+			this.budget.countQuiescence();
+			double value = this.nullSearchMax(position, alpha, beta, depthLeft-1, context);
+			position.unmake();
+			context.accumulator.pop();
+			
+			if ( this.stopSearching || context.cancelled() )
 			{
-				double posFactor = this.getPositionFactor(piece,pieceName, piece.file, adjustedRank, turn);
-				double pttFactor = this.getPotentialFactor(state, piece, pieceName) ;
-				double oFactor = this.getOpeningFactor(state, piece, value);
-
-				this.totalExtraFactor += (posFactor + pttFactor + oFactor);
+				break;
 			}
 			
-			// In OPPONENT's turn, assess his potential and subtract it from totalExtraFactor,
-			// as the more potential my opponent has, the less desirable it is for me
-			else if ( !state.player.equals(this.mySide))
+			min = Math.min(min, value);
+			if ( min <= alpha )
 			{
-				double pttFactor = this.getPotentialFactor(state, piece, pieceName) ;
-				this.totalExtraFactor -= pttFactor;
+				return min;
 			}
-				
-				
+			beta = Math.min(beta, min);
+		}
+		return min;
+	}
+	
+	
+	/**
+	 * Razoring: a node close to the horizon whose material is far on the wrong side of the window
+	 * is searched with the quiescence search only. If the captures cannot bring it back either,
+	 * its value is taken as is; otherwise the node is searched as usual.
+	 * The material comes from the cheap material-only evaluation.
+	 * 
+	 * @param tree - the node
+	 * @param maximizing - true for a node of findMax, false for findMin
+	 * @param alpha - the node's alpha
+	 * @param beta - the node's beta
+	 * @param depth - the depth of the node
+	 * @param context - the line of search the node belongs to
+	 * @return the value of the quiescence search, NaN if the node was not razored
+	 */
+	private double razor(GameTree tree, boolean maximizing, double alpha, double beta, int depth, SearchContext context)
+	{
+		if ( depth == 0 || depthLimit - depth > RAZOR_DEPTH || tree.getState().check
+				|| (maximizing ? alpha == Double.NEGATIVE_INFINITY : beta == Double.POSITIVE_INFINITY) )
+		{
+			return Double.NaN;
+		}
+		
+		double material = evaluate(tree, false, context);
+		if ( maximizing ? material + RAZOR_MARGIN > alpha : material - RAZOR_MARGIN < beta )
+		{
+			return Double.NaN;
+		}
+		
+		double value = this.quiesce(tree, maximizing, alpha, beta, context);
+		
+		if ( this.stopSearching || context.cancelled() )
+		{
+			return Double.NaN;
 		}
-		 
 		return value;
-	} // end of getPieceValue
+	}
 	
 	
+	/**
+	 * Futility pruning: one ply from the horizon, a quiet move changes no material, and the
+	 * child is evaluated within FUTILITY_MARGIN of its material. If even that cannot reach
+	 * the window, the quiet moves are futile; only captures, promotions and checks are searched.
+	 * The material comes from the cheap material-only evaluation, so the full evaluation
+	 * with its potential factors only runs on the children which can still change the result.
+	 * 
+	 * @param tree - the node
+	 * @param maximizing - true for a node of findMax, false for findMin
+	 * @param alpha - the node's alpha
+	 * @param beta - the node's beta
+	 * @param depth - the depth of the node
+	 * @param context - the line of search the node belongs to
+	 * @return the best value a quiet move may get, NaN if the quiet moves must be searched
+	 */
+	private double futilityValue(GameTree tree, boolean maximizing, double alpha, double beta, int depth, SearchContext context)
+	{
+		State state = tree.getState();
+		if ( depth == 0 || depthLimit - depth != 1 || state.check || state.over
+				|| (maximizing ? alpha == Double.NEGATIVE_INFINITY : beta == Double.POSITIVE_INFINITY) )
+		{
+			return Double.NaN;
+		}
+		
+		double material = evaluate(tree, false, context);
+		if ( maximizing )
+			return material + FUTILITY_MARGIN <= alpha ? material + FUTILITY_MARGIN : Double.NaN;
+		else
+			return material - FUTILITY_MARGIN >= beta ? material - FUTILITY_MARGIN : Double.NaN;
+	}
 	
 	
-	// OVERLOADED getPieceValue method, returns only the material score of the piece
-	private double getPieceValue( Piece piece)
+	/**
+	 * Late move reductions: the moves are ordered best first, so a quiet move that comes late
+	 * is unlikely to be the best one; it is searched one ply shallower, which is enough to show
+	 * it is no better than the moves before it. Captures, checks and moves out of check are never reduced.
+	 * 
+	 * @param tree - the node
+	 * @param child - the child about to be searched
+	 * @param depth - the depth of the node
+	 * @param moveNumber - the number of the child in the order of the node's children, from 1
+	 * @return true if the child may be searched with a reduced depth
+	 */
+	private boolean canReduce(GameTree tree, GameTree child, int depth, int moveNumber)
 	{
-		return this.getPieceValue(piece, 0, null, false);
-	} // end of overloaded getPieceValue
-
+		if ( depth == 0 || moveNumber <= FULL_DEPTH_MOVES || depthLimit - depth < REDUCTION_MIN_DEPTH
+				|| tree.getState().check || child.getState().check )
+		{
+			return false;
+		}
+		
+		int move = child.getMove();
+		return move != Move.NULL && !MoveGenerator.isTactical(tree.getBitboards(), move);
+	}
 	
 	
 	/**
-	 * return the value with respect to a piece's position
+	 * Quiescence search of a node at the depth limit
+	 * 
+	 * The node is copied into the position of its line of search, which makes and unmakes
+	 * the captures below it: the quiescence search generates no state at all.
 	 * 
-	 * @param piece
-	 * @param pieceName
-	 * @param file
-	 * @param rank
-	 * @param turn
-	 * @return the value with respect to a piece's position
+	 * @param tree - the node to search
+	 * @param maximizing - true if this bot is to move in the node
+	 * @param alpha - the highest value discovered so far in this branch of the tree
+	 * @param beta - the lowest value discovered so far in this branch of the tree
+	 * @param context - the line of search the node belongs to
+	 * @return the value of the node
 	 */
-	private double getPositionFactor(Piece piece, String pieceName, int file, int rank, int turn)
+	private double quiesce(GameTree tree, boolean maximizing, double alpha, double beta, SearchContext context)
 	{
-		// positionFactor consists of rank and file factors
-		// evaluate only my pieces to reduce time complexity
-		if ( piece.player.equals(this.mySide))
-			return getRankFactor(pieceName,rank,turn) + getFileFactor(pieceName,file);
-		else
-			return 0.0;
+		context.position.reset(tree);
+		return maximizing ? this.quiesceMax(context.position, alpha, beta, 0, context)
+				: this.quiesceMin(context.position, alpha, beta, 0, context);
 	}
 	
 	
 	/**
-	 * return the value of a piece with respect to its rank
-	 * range: 4.0 - 8.0
-	 * @param piece
-	 * @param rank
-	 * @param turn
-	 * @return the value of a piece with respect to its rank
+	 * Quiescence search of a position where this bot is to move, beyond the depth limit
+	 * 
+	 * Evaluating a position in the middle of an exchange gives a value that is wrong by a piece,
+	 * so at the horizon the search goes on with the captures only. The side to move may also
+	 * decline every capture and keep the evaluation of the position ("stand pat").
+	 * Captures that lose material, or cannot win enough to reach alpha, are not searched.
+	 * When in check there is no standing pat, every move is searched.
+	 * 
+	 * @param position - the position to search, left as it was on return
+	 * @param alpha - the highest value discovered so far in this branch of the tree
+	 * @param beta - the lowest value discovered so far in this branch of the tree
+	 * @param ply - the number of plies past the depth limit
+	 * @param context - the line of search the position belongs to
+	 * @return the value of the position
 	 */
-	private double getRankFactor(String piece, int rank, int turn)
+	private double quiesceMax(Position position, double alpha, double beta, int ply, SearchContext context)
 	{
-		double rankFactor = 0.0;
+		if ( this.stopSearching || context.cancelled() )
+		{
+			return Double.NEGATIVE_INFINITY;
+		}
+		else if ( this.budget.exhausted() || this.outOfTime() )
+		{
+			this.stopSearching = true;
+			return Double.NEGATIVE_INFINITY;
+		}
 		
-		// For the king, position in lower ranks is preferred
-		if ( piece.equals("King"))
+		// check mate or stale mate, both are BAD
+		if ( position.isOver() )
 		{
-			if ( turn < 50 )
-				rankFactor = -(double)rank/3.0;
+			return Double.NEGATIVE_INFINITY;
 		}
 		
-		// Pawns usually better off moving forward
-		if ( piece.equals("Pawn"))
+		int[] moves = context.moveStack.moves(position.getLevel());
+		int[] scores = context.moveStack.scores(position.getLevel());
+		int count;
+		
+		double max = Double.NEGATIVE_INFINITY;
+		if ( position.isCheck() )
 		{
-			if ( turn < 30)
-				rankFactor += rank <= 4 ? ((double) rank) : 4.0;  
-			// toward the end of the game, move forward more aggressively
-			else
+			count = position.listMoves(this.ordering, depthLimit + ply, moves, scores);
+		}
+		else
+		{
+			max = evaluate(position, alpha, beta, context);
+			if ( max >= beta || ply >= MAX_QUIESCENCE_PLY || this.budget.quiescenceExhausted() )
 			{
-				rankFactor += (double) rank;
+				return max;
 			}
+			alpha = Math.max(alpha, max);
+			count = position.listCaptures((int) Math.ceil(alpha - max - DELTA_MARGIN), moves, scores);
 		}
 		
-		// For other pieces
-		else
+		for ( int i = 0; i < count; i++ )
 		{
-			// position in the middle field is preferred
-			if ( turn < 35)
-				rankFactor += rank <= 3 ? ((double) rank) : 3.0;  
+			int move = MoveOrdering.selectBest(moves, scores, i, count);
+			
+			context.accumulator.push(position.getBitboards(), move);
+			position.make(move);
+			this.budget.countQuiescence();
+			double value = this.quiesceMin(position, alpha, beta, ply+1, context);
+			position.unmake();
+			context.accumulator.pop();
+			
+			if ( this.stopSearching || context.cancelled() )
+			{
+				break;
+			}
+			
+			max = Math.max(max, value);
+			if ( max >= beta )
+			{
+				return max;
+			}
+			alpha = Math.max(alpha, max);
 		}
-		
-		// return rankFactor, as the game comes to the end, rankFactor becomes directly proportional with the turn
-		return rankFactor * (turn > 40 ? (double)turn/20.0: 1.0 ) ;
+		return max;
 	}
 	
+	
 	/**
-	 * return the value of a piece with respect to its file
+	 * Quiescence search of a position where the opponent is to move, the opposite of quiesceMax
 	 * 
-	 * @param piece
-	 * @param file
-	 * @return the value of a piece with respect to its file
+	 * @param position - the position to search, left as it was on return
+	 * @param alpha - the highest value discovered so far in this branch of the tree
+	 * @param beta - the lowest value discovered so far in this branch of the tree
+	 * @param ply - the number of plies past the depth limit
+	 * @param context - the line of search the position belongs to
+	 * @return the value of the position
 	 */
-	private double getFileFactor(String piece, int file)
+	private double quiesceMin(Position position, double alpha, double beta, int ply, SearchContext context)
 	{
-		double fileFactor = 0.0;
+		if ( this.stopSearching || context.cancelled() )
+		{
+			return Double.NEGATIVE_INFINITY;
+		}
+		else if ( this.budget.exhausted() || this.outOfTime() )
+		{
+			this.stopSearching = true;
+			return Double.NEGATIVE_INFINITY;
+		}
 		
+		// opponent loses by check mate = GOOD, draw by stale mate = BAD
+		if ( position.isOver() )
+		{
+			return position.isCheck() ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+		}
+		
+		int[] moves = context.moveStack.moves(position.getLevel());
+		int[] scores = context.moveStack.scores(position.getLevel());
+		int count;
 		
-		// Cornered knights and bishops are undesired
-		if ( piece.equals("Knight") || piece.equals("Bishop"))
+		double min = Double.POSITIVE_INFINITY;
+		if ( position.isCheck() )
 		{
-			if ( file == 0 || file == 7)
+			count = position.listMoves(this.ordering, depthLimit + ply, moves, scores);
+		}
+		else
+		{
+			min = evaluate(position, alpha, beta, context);
+			if ( min <= alpha || ply >= MAX_QUIESCENCE_PLY || this.budget.quiescenceExhausted() )
 			{
-				fileFactor = -2.0;
+				return min;
 			}
+			beta = Math.min(beta, min);
+			count = position.listCaptures((int) Math.ceil(min - beta - DELTA_MARGIN), moves, scores);
 		}
-				
-		return fileFactor;
+		
+		for ( int i = 0; i < count; i++ )
+		{
+			int move = MoveOrdering.selectBest(moves, scores, i, count);
+			
+			context.accumulator.push(position.getBitboards(), move);
+			position.make(move);
+			this.budget.countQuiescence();
+			double value = this.quiesceMax(position, alpha, beta, ply+1, context);
+			position.unmake();
+			context.accumulator.pop();
+			
+			if ( this.stopSearching || context.cancelled() )
+			{
+				break;
+			}
+			
+			min = Math.min(min, value);
+			if ( min <= alpha )
+			{
+				return min;
+			}
+			beta = Math.min(beta, min);
+		}
+		return min;
 	}
 	
 	
+	/**
+	 * Check the hard deadline of the clock, once it has passed the budget is stopped
+	 * so every thread searching this move stops too
+	 * 
+	 * @return true if the search has run out of time
+	 */
+	private boolean outOfTime()
+	{
+		if ( this.clock != null && this.clock.outOfTime() )
+		{
+			this.budget.stop();
+			return true;
+		}
+		return false;
+	}
+	
 	
 	/**
-	 * meant to encourage all the pieces to participate in the game
-	 * range : -2.0 - -5.0
-	 * @param state
-	 * @param piece
-	 * @param value
-	 * @return
+	 * @param depth - the depth of a node
+	 * @return true if the younger children of the node are worth searching in parallel
 	 */
-	private double getOpeningFactor ( State state, Piece piece, double value)
+	private boolean canSplit(int depth)
 	{
-		double oFactor = 0.0;
-		
+		return this.splitPool != null && depthLimit - depth >= MIN_SPLIT_DEPTH;
+	}
+	
+	
+	/**
+	 * Search the remaining children of a split node at the same time, one task per thread of the pool,
+	 * each on its own copy of the context. A task takes the next child from the node once it is done with
+	 * the last one, so the children are only made as they are searched, and none once the node is cut off.
+	 * every child reports its value to the split point, which is cut off as soon as one of them is good enough
+	 * 
+	 * @param tree - the node whose eldest child has been searched
+	 * @param split - the split point of the node
+	 * @param depth - the depth of the node
+	 * @param context - the line of search the node belongs to
+	 */
+	private void searchYoungBrothers(GameTree tree, SplitPoint split, int depth, SearchContext context)
+	{
+		List<RecursiveAction> brothers = new ArrayList<RecursiveAction>();
 		
-		if ( !piece.equals("K") && piece.player.equals(mySide))
+		for ( int i = 0; i < this.splitPool.getParallelism(); i++ )
 		{
-			if ( !state.board.hasMoved(piece))
-			{
-				// idling is undesired, hence the negative value
-				oFactor = -(double)value/10.0;
-			}
-			if ( oFactor <= -5.0)
-				oFactor = -5.0;
+			SearchContext line = new SearchContext(context, split);
+			
+			brothers.add(new RecursiveAction() {
+				
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute()
+				{
+					// stop taking children once a brother has cut the node off
+					while ( !stopSearching && !line.cancelled() )
+					{
+						GameTree child = tree.takeNextChild();
+						if ( child == null )
+							return;
+						
+						// the window is read when the search starts, it may have narrowed since the split
+						// a late quiet move is reduced, as in the serial search
+						int repetitions = line.repetitions;
+						line.accumulator.push(tree.getBitboards(), child.getBitboards());
+						if ( canReduce(tree, child, depth, child.getMoveNumber()) )
+							child.value = searchReduced(child, split.isMaximizing(), split.alpha(), split.beta(), depth+1, line);
+						else
+							child.value = searchChild(child, split.isMaximizing(), false, split.alpha(), split.beta(), depth+1, line);
+						line.accumulator.pop();
+						
+						if ( !stopSearching && !line.cancelled() )
+							split.report(child, child.value, line.repetitions - repetitions);
+					}
+				}
+			});
 		}
 		
+		ForkJoinTask.invokeAll(brothers);
 		
-		// return the oFactor divided by 3, this is too make it not too large as it will become an unnecessary pressure
-		return oFactor/3.0;
+		// a repetition below a brother makes the value of the node depend on the path too
+		context.repetitions += split.repetitions();
 	}
 	
 	
 	/**
-	 * Potential factor represents the piece's ability to do advantageous move in the next step, consists of...
-	 * moveFactor: the more legal move the piece can make, the higher the value
-	 * captureFactor: this method also call the findBestCapture method to evaluate the player's ability to capture a good piece
+	 * Remember the child that cut a node off, so it is tried early in the nodes searched later
+	 * captures are left out, they are ordered first anyway
 	 * 
-	 * @param state
-	 * @param piece
-	 * @param pieceName
-	 * @return Potential factor
+	 * @param tree - the node that was cut off
+	 * @param child - the child whose value cut it off
+	 * @param depth - the depth of the node
 	 */
-	private double getPotentialFactor ( State state, Piece piece, String pieceName)
+	private void recordCutoff(GameTree tree, GameTree child, int depth)
 	{
-		Board board = state.board;
-		
-		// only the player who is to move on this turn can benefit from this factor, since it indicates what you can do on your move
-		if (!piece.player.equals(state.player))
-			return 0.0;
+		int move = child.getMove();
 		
+		if ( move == Move.NULL || MoveGenerator.isTactical(tree.getBitboards(), move) )
+		{
+			return;
+		}
 		
-		double moveFactor = 0.0;
-
-		int file = piece.file;
-		int rank = piece.rank;
+		this.ordering.cutoff(move, tree.getState().player, depth, depthLimit - depth, tree.getMove());
+	}
+	
+	
+	/**
+	 * Save the result of searching a node in the transposition table
+	 * nothing is saved when the search has been stopped, since the value may be incomplete,
+	 * nor when the search of the node ran into a draw by repetition: the value then depends on
+	 * the path to the node, and would be wrong for the same state reached in another way
+	 * 
+	 * @param tree - the searched node
+	 * @param depth - the depth of the node
+	 * @param bound - EXACT, LOWER or UPPER
+	 * @param value - the value found by the search
+	 * @param bestChild - the child with the best value, null if the node has no children
+	 * @param repetitions - context.repetitions when the search of the node started
+	 * @param context - the line of search the node belongs to
+	 */
+	private void storeResult(GameTree tree, int depth, int bound, double value, GameTree bestChild, int repetitions, SearchContext context)
+	{
+		if ( this.stopSearching || context.cancelled() || depth == 0 || context.repetitions != repetitions )
+		{
+			return;
+		}
 		
+		int bestMove = bestChild == null ? Move.NULL : bestChild.getMove();
 		
-		/**
-		 * Begin assessment HERE
-		 * concept: check every possible square the piece can move to
-		 * if the square is empty => the piece can move there => moveFactor increases by 1.0
-		 * if the square is not empty, then there's a potential capture the piece can make, 
-		 * call method findBestCapture to assess this
-		 */
-		if ( pieceName.equals("Pawn"))
-		{
-			file--;
-			rank++;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			rank = piece.rank;
-			
-			file++;
-			rank++;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			rank = piece.rank;
+		// a reduced search may reach past the depth limit
+		this.transpositionTable.store(tableKey(tree), Math.max(0, depthLimit - depth), bound, value, bestMove);
+	}
+	
+	
+	/**
+	 * @param tree - a node
+	 * @return the key of the node in the transposition table, the hash of its state, of the phase of the game,
+	 *         of the castling rights and of the en passant file
+	 */
+	private static long tableKey(GameTree tree)
+	{
+		return tree.getHash() ^ Zobrist.phaseKey(PieceSquareTables.phase(tree.getState().turn))
+				^ Zobrist.castlingKey(tree.getBitboards().unmoved) ^ Zobrist.enPassantKey(tree.getEnPassantFile());
+	}
+	
+	
+	/**
+	 * Evaluate the state of a game tree node, using the node's cached bitboards
+	 * The better the state is for THIS BOT, the larger the evaluated value, and vice versa
+	 * 
+	 * The material score and the position factor are not computed here, they are kept
+	 * up to date by the accumulator as the search moves along the path to this node
+	 * 
+	 * @param node - the node whose state is to be evaluated, at the top of the accumulator's path
+	 * @param withExtraFactor - false : return only material score, true : return material score plus additional factors
+	 * @param context - the line of search the node belongs to
+	 * @return the evaluated value for the said state 
+	 */
+	double evaluate(GameTree node, boolean withExtraFactor, SearchContext context)
+	{
+		if ( withExtraFactor )
+		{
+			context.position.reset(node);
+			return this.evaluate(context.position, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, context);
 		}
 		
+		// debug mode: make sure the incremental sums match a full evaluation
+		if ( CHECK_EVALUATION )
+			context.accumulator.verify(node.getBitboards());
 		
-		else if ( pieceName.equals("King"))
+		context.totalExtraFactor = 0.0;
+		return context.accumulator.material();
+	}
+	
+	
+	/**
+	 * Evaluate a position in stages, stopping as soon as the value is known
+	 * to be outside the window (alpha, beta); the value is then only a bound, like a fail-soft search
+	 * 
+	 * 1. the material: the extra factors are capped below a Pawn, so they cannot move it further
+	 * 2. the position, castling and opening factors, which are cheap, and the largest range
+	 *    the potential factors of the player to move may still add
+	 * 3. the potential factors, looking at the moves of every piece
+	 * 
+	 * Inside the window, the value is the same as the full evaluation.
+	 * 
+	 * @param position - the position to be evaluated, at the top of the accumulator's path
+	 * @param alpha - the value this bot is already assured of
+	 * @param beta - the value the opponent is already assured of
+	 * @param context - the line of search the position belongs to
+	 * @return the evaluated value, at least beta or at most alpha if it is only a bound
+	 */
+	private double evaluate(Position position, double alpha, double beta, SearchContext context)
+	{
+		Player player = position.getPlayer();
+		
+		// the pieces currently present on the board, one set per piece code
+		Bitboards boards = position.getBitboards();
+		
+		// debug mode: make sure the incremental sums match a full evaluation
+		if ( CHECK_EVALUATION )
+			context.accumulator.verify(boards);
+				
+		// the value to be returned, starts with the material score
+		double value = context.accumulator.material();
+		
+		// stage 1: the extra factors only move the material score by less than a Pawn
+		double bound = this.boundOutside(value - EXTRA_FACTOR_CAP, value + EXTRA_FACTOR_CAP, alpha, beta);
+		if ( !Double.isNaN(bound) )
 		{
-			file--;
-			rank++;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			rank = piece.rank;
-			
-			file++;
-			rank++;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			rank = piece.rank;
-			
-			file--;
-			rank--;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			rank = piece.rank;
-			
-			file++;
-			rank--;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			rank = piece.rank;
-			
-			file--;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			
-			file++;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			
-			rank--;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			
-			rank++;
-			if ( board.pieceAt(file, rank))
-				this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
+			return this.lazyExit(position, bound, alpha, beta, context);
 		}
 		
+		// stage 2: everything but the potential factors, plus the range these may add
+		double phaseFactor = context.accumulator.positional(PieceSquareTables.phase(position.getTurn()));
+		double castlingFactor = player.equals(mySide) ? this.getCastlingFactor(position) : 0.0 ;
+		double known = phaseFactor + castlingFactor + this.getOpeningFactors(boards);
+		double potential = this.getMaxPotentialFactor(boards, player);
+		
+		// the potential of my pieces adds up, the potential of the opponent's is subtracted
+		double low = player.equals(mySide) ? known : known - potential;
+		double high = player.equals(mySide) ? known + potential : known;
+		bound = this.boundOutside(value + capLow(low), value + capHigh(high), alpha, beta);
+		if ( !Double.isNaN(bound) )
+		{
+			return this.lazyExit(position, bound, alpha, beta, context);
+		}
 		
+		// stage 3: the full evaluation
+		this.budget.countEvaluation(false);
+		return value + this.getExtraFactor(position, context);
+	}// end of evaluate
+	
+	
+	/**
+	 * @param low - the lowest the value can be
+	 * @param high - the highest the value can be
+	 * @param alpha - the value this bot is already assured of
+	 * @param beta - the value the opponent is already assured of
+	 * @return the bound to return if the value cannot be inside (alpha, beta), NaN if it may be
+	 */
+	private double boundOutside(double low, double high, double alpha, double beta)
+	{
+		if ( high <= alpha )
+			return high;
+		if ( low >= beta )
+			return low;
+		return Double.NaN;
+	}
+	
+	
+	/**
+	 * Count an evaluation that stopped early, and in debug mode make sure its bound holds
+	 * 
+	 * @return the bound
+	 */
+	private double lazyExit(Position position, double bound, double alpha, double beta, SearchContext context)
+	{
+		this.budget.countEvaluation(true);
 		
-		else if ( pieceName.equals("Rook"))
+		if ( CHECK_EVALUATION )
 		{
-			file--; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				file--; 
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			
-			file++; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
+			double value = context.accumulator.material() + this.getExtraFactor(position, context);
+			if ( bound <= alpha ? value > bound : value < bound )
 			{
-				file++; 
-				moveFactor += 1.0;
+				throw new IllegalStateException("Lazy evaluation bound " + bound + " does not hold for " + value);
 			}
-			this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			
-			rank++; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			
-			rank--; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
 		}
+		return bound;
+	}
+	
+	
+	/**
+	 * The lowest the extra factors can be once capped, when they add up to at least low
+	 * halving never takes them below -10.0, nor a sum of 10.0 or more below 5.0
+	 */
+	private static double capLow(double low)
+	{
+		return Math.max(-EXTRA_FACTOR_CAP, Math.min(low, EXTRA_FACTOR_CAP / 2));
+	}
+	
+	
+	/**
+	 * The highest the extra factors can be once capped, when they add up to at most high
+	 */
+	private static double capHigh(double high)
+	{
+		return Math.min(EXTRA_FACTOR_CAP, Math.max(high, -EXTRA_FACTOR_CAP / 2));
+	}
+	
+	
+	/**
+	 * Add up all the factors other than the material score, capped below the value of a Pawn
+	 * 
+	 * @param position - the position to be evaluated
+	 * @param context - the line of search, holding the totalExtraFactor sum
+	 * @return the capped sum, also left in context.totalExtraFactor
+	 */
+	private double getExtraFactor(Position position, SearchContext context)
+	{
+		Player player = position.getPlayer();
+		Bitboards boards = position.getBitboards();
 		
+		// positionFactor of my pieces, from the piece-square tables
+		context.totalExtraFactor = context.accumulator.positional(PieceSquareTables.phase(position.getTurn()));
 		
-		else if ( pieceName.equals("Queen"))
+		// loop through all the pieces on the board, friends or foes
+		for ( int code = 0; code < 12; code++ )
 		{
-			file--; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				file--; 
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			
-			file++; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				file++; 
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			file = piece.file;
-			
-			rank++; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			
-			rank--; 
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			
-			rank--; 
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank--; 
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
+			long set = boards.pieces[code];
+			while ( set != 0 )
 			{
-				rank--; 
-				file++;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++; 
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++; 
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				file++;
-				moveFactor += 1.0;
+				int square = Long.numberOfTrailingZeros(set);
+				set &= set - 1;
+				
+				this.addPieceFactors(code, square, player, boards, context);
 			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			moveFactor /= 2.0;
 		}
 		
+		// add the castling Factor 
+		//( the beneficial factor where castling occurs for friendly King )
+		double castlingFactor = player.equals(mySide) ? this.getCastlingFactor(position) : 0.0 ;
+		context.totalExtraFactor += castlingFactor;
+		
+		// extra factor cannot be too high as to avoid the loss of a piece just for a better position
+		// ==> make sure it is no larger than 10.0, which is the value of a Pawn
+		while(Math.abs(context.totalExtraFactor) >= EXTRA_FACTOR_CAP)
+			context.totalExtraFactor *= 0.5;
+		
+		// the captures are not guessed here, the quiescence search plays them out
+		return context.totalExtraFactor;
+	}
+	
+	
+	/**
+	 * The opening factors of all my pieces at once, counting the unmoved pieces of each type
+	 * same as adding up getOpeningFactor() for every piece
+	 * 
+	 * @param boards - the bitboards of the state
+	 * @return the sum of the opening factors
+	 */
+	private double getOpeningFactors( Bitboards boards)
+	{
+		double oFactor = 0.0;
+		for ( int type = Bitboards.PAWN; type <= Bitboards.KING; type++ )
+		{
+			int unmoved = Long.bitCount(boards.pieces[Bitboards.pieceCode(type, mySide)] & boards.unmoved);
+			oFactor += unmoved * Math.max(-(double)EvalAccumulator.MATERIAL[type]/10.0, -5.0) / 3.0;
+		}
+		return oFactor;
+	}
+	
+	
+	/**
+	 * The largest sum the potential factors of a player's pieces can reach, as if every square they attack were empty
+	 * 
+	 * @param boards - the bitboards of the state
+	 * @param player - the player to move, the only one whose pieces have a potential factor
+	 * @return the most getPotentialFactor() can add up to for the player's pieces
+	 */
+	private double getMaxPotentialFactor( Bitboards boards, Player player)
+	{
+		double pttFactor = 0.0;
+		for ( int type = Bitboards.KNIGHT; type <= Bitboards.QUEEN; type++ )
+		{
+			pttFactor += Long.bitCount(boards.pieces[Bitboards.pieceCode(type, player)]) * MAX_POTENTIAL_FACTOR[type];
+		}
+		return pttFactor;
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Add the factors of the given piece other than its material score and position
+	 * to the totalExtraFactor sum: potential move & capture factor, opening factor
+	 * 
+	 * @param code - the piece code of the piece to be evaluated
+	 * @param square - the square the piece stands on
+	 * @param toMove - the player to move in the position
+	 * @param boards - the bitboards of the position
+	 * @param context - the line of search, holding the totalExtraFactor sum
+	 */
+	private void addPieceFactors( int code, int square, Player toMove, Bitboards boards, SearchContext context)
+	{
+		Player player = Bitboards.player(code);
+		
+		/**
+		 *  potentialFactor: consider what the piece can do in the next turn
+		 *  openingFactor: encourages the piece to come into the game instead of idling
+		 */
 		
-		else if ( pieceName.equals("Bishop"))
+		// ADD the extra factors of MY pieces to the total extra factors
+		if ( player.equals(this.mySide))
 		{
-			rank--; 
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank--; 
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				file++;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++; 
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++; 
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				file++;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
+			double pttFactor = this.getPotentialFactor(toMove, boards, code, square) ;
+			double oFactor = this.getOpeningFactor(boards, player, square, EvalAccumulator.MATERIAL[Bitboards.type(code)]);
+
+			context.totalExtraFactor += (pttFactor + oFactor);
 		}
 		
+		// In OPPONENT's turn, assess his potential and subtract it from totalExtraFactor,
+		// as the more potential my opponent has, the less desirable it is for me
+		else if ( !toMove.equals(this.mySide))
+		{
+			double pttFactor = this.getPotentialFactor(toMove, boards, code, square) ;
+			context.totalExtraFactor -= pttFactor;
+		}
+	} // end of addPieceFactors
+
+	
+	
+	/**
+	 * meant to encourage all the pieces to participate in the game
+	 * range : -2.0 - -5.0
+	 * @param boards
+	 * @param player
+	 * @param square
+	 * @param value
+	 * @return
+	 */
+	private double getOpeningFactor ( Bitboards boards, Player player, int square, double value)
+	{
+		double oFactor = 0.0;
 		
-		else if ( pieceName.equals("Knight"))
+		
+		if ( player.equals(mySide))
 		{
-			rank--;
-			rank--;
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				rank--;
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank--;
-			rank--;
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				rank--;
-				file++;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++;
-			rank++;
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				rank++;
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++;
-			rank++;
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				rank++;
-				file++;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank--;
-			file--;
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
+			if ( (boards.unmoved & (1L << square)) != 0 )
 			{
-				rank--; 
-				file--;
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++;
-			file--;
-			file--;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				file--;
-				file--;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank--;
-			file++;
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank--; 
-				file++;
-				file++;
-				moveFactor += 1.0;
-			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
-			rank++;
-			file++;
-			file++;
-			while ( !board.pieceAt(file, rank) && Board.isValid(file, rank))
-			{
-				rank++; 
-				file++;
-				file++;
-				moveFactor += 1.0;
+				// idling is undesired, hence the negative value
+				oFactor = -(double)value/10.0;
 			}
-			this.findBestCapture(file, rank, piece, state);
-			rank = piece.rank;
-			file = piece.file;
-			
+			if ( oFactor <= -5.0)
+				oFactor = -5.0;
 		}
 		
-		// return moveFactor divided by 3, again to avoid it getting too large
-		return moveFactor/3.0;
-	} // end of getPotentialFactor()
-	
+		
+		// return the oFactor divided by 3, this is too make it not too large as it will become an unnecessary pressure
+		return oFactor/3.0;
+	}
 	
 	
-
 	/**
-	 * Find the value of the best piece the player can capture in this turn
+	 * Potential factor represents the piece's ability to do advantageous move in the next step, consists of...
+	 * moveFactor: the more legal move the piece can make, the higher the value
+	 * the captures the piece can make are left to the quiescence search
 	 * 
-	 * @param file
-	 * @param rank
-	 * @param piece
-	 * @param state
-	 * @return the best value can obtain
+	 * @param toMove - the player to move
+	 * @param boards
+	 * @param code - the piece code of the piece
+	 * @param square - the square the piece stands on
+	 * @return Potential factor
 	 */
-	private void findBestCapture( int file, int rank, Piece piece, State state)
+	double getPotentialFactor ( Player toMove, Bitboards boards, int code, int square)
 	{
-		Piece pieceOnPath = null;
-		double captureValue = 0.0;
+		Player player = Bitboards.player(code);
+		int type = Bitboards.type(code);
 		
-		if ( Board.isValid(file, rank))
-		{
-			// the piece on this piece's path
-			pieceOnPath = state.board.getPieceAt(file, rank);
-			
-			// chance to capture opponent's piece
-			if ( !pieceOnPath.player.equals(piece.player))
-				captureValue = this.getPieceValue(pieceOnPath);
-		}
+		// only the player who is to move on this turn can benefit from this factor, since it indicates what you can do on your move
+		if (!player.equals(toMove))
+			return 0.0;
 		
-		// the bestCapture field holds the best possible value
-		this.bestCapture = Math.max(this.bestCapture, captureValue); 
-	}
+		
+		/**
+		 * Begin assessment HERE
+		 * concept: look up every square the piece attacks in the precomputed tables
+		 * the empty ones are squares the piece can move to => moveFactor increases by 1.0 for each
+		 */
+		long attacks = Attacks.of(type, player, square, boards.occupied);
+		
+		// pawns and kings do not count for their moves
+		if ( type == Bitboards.PAWN || type == Bitboards.KING )
+			return 0.0;
+		
+		double moveFactor = Long.bitCount(attacks & ~boards.occupied);
+		
+		if ( type == Bitboards.QUEEN )
+			moveFactor /= 2.0;
+		
+		// return moveFactor divided by 3, again to avoid it getting too large
+		return moveFactor/3.0;
+	} // end of getPotentialFactor()
 	
 	
 	/**
@@ -1038,12 +2034,12 @@ public class MyBot extends Bot {
 	 * 0.0 if no
 	 */
 	// 
-	private double getCastlingFactor( State state)
+	private double getCastlingFactor( Position position)
 	{
-		Piece currentKing = state.board.getKing(mySide);
-		Piece pastKing = state.previous.board.getKing(mySide);
+		int currentKing = position.getBitboards().kingSquare(mySide);
+		int pastKing = position.previousKingSquare(mySide);
 		
-		if ( Math.abs(currentKing.file - pastKing.file) == 2) // YES
+		if ( Math.abs((currentKing & 7) - (pastKing & 7)) == 2) // YES
 		{
 			return 5.0;
 		}
@@ -0,0 +1,319 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.stephengware.java.games.chess.state.Board;
+import com.stephengware.java.games.chess.state.State;
+
+/**
+ * Counts the positions reached after a number of moves (perft), to check the moves the bot
+ * makes on its own against the rules of the game, and to time both.
+ *
+ * Each position is walked twice...
+ * Position - the moves of the MoveGenerator, made and unmade in place, as the quiescence search does
+ * State.next() - the states of the game itself
+ * The counts must be the same. When they are not, the count below each root move is printed
+ * for both walks, so the move whose subtree differs can be followed down by hand.
+ *
+ * The game offers the promotion to a Queen twice, once in its own right and once more after
+ * the other promotions are turned down: a child with the same board as the one before it is not counted.
+ *
+ * The positions are played from the start of a game, so they have a history as real games do,
+ * which the en passant and castling rules look at. Each walk is split over the root moves, one thread each.
+ *
+ * usage: Perft [depth], 4 by default
+ *
+ * @author Hung L. Le
+ */
+public class Perft {
+
+	/** the positions, as the moves played to reach them from the start (from square, to square, promotion) */
+	private static final String[][] POSITIONS = {
+		{ "start", "" },
+		{ "castling", "e2e4 e7e5 g1f3 b8c6 f1c4 g8f6 d2d3 f8c5 c1g5 d7d6 b1c3 c8g4 d1d2 d8d7" },
+		{ "castling through check", "g1f3 b7b6 g2g3 c8a6 f1g2 e7e6 e2e4 g8e7 b1c3 e7g6" },
+		{ "en passant", "e2e4 a7a6 e4e5 d7d5 h2h4 a6a5 h4h5 g7g5" },
+		{ "promotions", "b2b4 a7a5 b4a5 b7b5 a5a6 b5b4 a6a7 b4b3" },
+		{ "checks", "e2e4 d7d5 f1b5" }
+	};
+
+	/** the promotions of a packed move, in the order of Move's codes */
+	private static final String PROMOTIONS = " nbrq";
+
+
+	/**
+	 * Walk every position to a depth and print the counts and the speed of both walks
+	 *
+	 * @param args - the depth, 4 if none is given
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 * @throws ExecutionException if a walk fails
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException
+	{
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		if ( depth < 1 )
+			throw new IllegalArgumentException("the depth must be at least 1");
+
+		ExecutorService threads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "perft");
+			thread.setDaemon(true); // never keep the program alive
+			return thread;
+		});
+
+		boolean agree = true;
+		long positionNodes = 0, positionTime = 0, stateNodes = 0, stateTime = 0;
+		for ( String[] position : POSITIONS )
+		{
+			State state = play(position[1]);
+
+			long start = System.nanoTime();
+			long[] byPosition = walkPositions(state, depth, threads);
+			long positionElapsed = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long[] byState = walkStates(state, depth, threads);
+			long stateElapsed = System.nanoTime() - start;
+
+			long counted = sum(byPosition);
+			long expected = sum(byState);
+			System.out.println(String.format("%-24s depth %d  %,12d nodes  Position %,12d nodes/s  State.next() %,12d nodes/s  %s",
+					position[0], depth, expected, perSecond(counted, positionElapsed), perSecond(expected, stateElapsed),
+					counted == expected ? "ok" : "MISMATCH, Position counts " + counted));
+
+			if ( counted != expected )
+			{
+				agree = false;
+				printDivide(state, byPosition, byState);
+			}
+
+			positionNodes += counted;
+			positionTime += positionElapsed;
+			stateNodes += expected;
+			stateTime += stateElapsed;
+		}
+		threads.shutdown();
+
+		System.out.println(String.format("%-24s          %,12d nodes  Position %,12d nodes/s  State.next() %,12d nodes/s",
+				"total", stateNodes, perSecond(positionNodes, positionTime), perSecond(stateNodes, stateTime)));
+		if ( !agree )
+			System.exit(1);
+	}
+
+
+	/**
+	 * Count the positions at a depth below a state, making the moves on a Position
+	 *
+	 * @return the count below each root move, in the order of the MoveGenerator
+	 */
+	private static long[] walkPositions(State state, int depth, ExecutorService threads) throws InterruptedException, ExecutionException
+	{
+		GameTree root = new GameTree(state);
+		root.getBitboards(); // built here, before the threads read it
+
+		Position position = new Position();
+		position.reset(root);
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		int count = state.over ? 0 : position.generate(moves);
+
+		List<Future<Long>> counts = new ArrayList<Future<Long>>();
+		for ( int i = 0; i < count; i++ )
+		{
+			int move = moves[i];
+			counts.add(threads.submit(() -> {
+
+				Position own = new Position();
+				own.reset(root);
+				own.make(move);
+				return count(own, depth - 1, new int[depth][MoveGenerator.MAX_MOVES]);
+			}));
+		}
+		return collect(counts);
+	}
+
+
+	/**
+	 * Count the positions at a depth below the position
+	 *
+	 * @param lists - a list of moves for each depth
+	 */
+	private static long count(Position position, int depth, int[][] lists)
+	{
+		if ( depth == 0 )
+			return 1;
+		if ( position.getMovesUntilDraw() == 0 )
+			return 0;
+
+		int[] moves = lists[depth];
+		int count = position.generate(moves);
+		if ( depth == 1 )
+			return count;
+
+		long nodes = 0;
+		for ( int i = 0; i < count; i++ )
+		{
+			position.make(moves[i]);
+			nodes += count(position, depth - 1, lists);
+			position.unmake();
+		}
+		return nodes;
+	}
+
+
+	/**
+	 * Count the states at a depth below a state, with the game's State.next()
+	 *
+	 * @return the count below each child of the state, in the order of the game
+	 */
+	private static long[] walkStates(State state, int depth, ExecutorService threads) throws InterruptedException, ExecutionException
+	{
+		// the game changes a board in place while it lists its moves, the children are listed here once
+		List<Future<Long>> counts = new ArrayList<Future<Long>>();
+		for ( State child : children(state) )
+		{
+			counts.add(threads.submit(() -> count(child, depth - 1)));
+		}
+		return collect(counts);
+	}
+
+
+	/**
+	 * Count the states at a depth below the state
+	 */
+	private static long count(State state, int depth)
+	{
+		if ( depth == 0 )
+			return 1;
+
+		List<State> children = children(state);
+		if ( depth == 1 )
+			return children.size();
+
+		long nodes = 0;
+		for ( State child : children )
+		{
+			nodes += count(child, depth - 1);
+		}
+		return nodes;
+	}
+
+
+	/**
+	 * @return the children of a state, without the second promotion to a Queen
+	 */
+	private static List<State> children(State state)
+	{
+		List<State> children = new ArrayList<State>();
+		Board last = null;
+		for ( State child : state.next() )
+		{
+			if ( !child.board.equals(last) )
+				children.add(child);
+			last = child.board;
+		}
+		return children;
+	}
+
+
+	/**
+	 * Print the count below each root move for both walks
+	 */
+	private static void printDivide(State state, long[] byPosition, long[] byState)
+	{
+		GameTree root = new GameTree(state);
+		Position position = new Position();
+		position.reset(root);
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		int count = position.generate(moves);
+		for ( int i = 0; i < count; i++ )
+		{
+			System.out.println("  Position      " + name(moves[i]) + " " + byPosition[i]);
+		}
+
+		List<State> children = children(state);
+		for ( int i = 0; i < children.size(); i++ )
+		{
+			System.out.println("  State.next()  " + name(Move.between(state, children.get(i))) + " " + byState[i]);
+		}
+	}
+
+
+	/**
+	 * Play the moves of a position from the start of a game, the benchmarks set up their positions the same way
+	 *
+	 * @param moves - the moves, separated by spaces: from square, to square and promotion, "e7e8q" for example
+	 * @return the state reached
+	 */
+	static State play(String moves)
+	{
+		SearchBudget budget = new SearchBudget();
+		State state = new State();
+		for ( String text : moves.trim().split(" +") )
+		{
+			if ( text.isEmpty() )
+				continue;
+
+			int move = Move.encode(square(text, 0), square(text, 2), text.length() > 4 ? PROMOTIONS.indexOf(text.charAt(4)) : Move.NONE);
+			State next = Move.toState(state, move, budget);
+			if ( next == null )
+				throw new IllegalArgumentException("the move " + text + " cannot be played after " + state);
+			state = next;
+		}
+		return state;
+	}
+
+
+	/**
+	 * @return the square named at an index of the text, "e2" for example
+	 */
+	private static int square(String text, int index)
+	{
+		return Move.square(text.charAt(index) - 'a', text.charAt(index + 1) - '1');
+	}
+
+
+	/**
+	 * @return the packed move as text, from square, to square and promotion
+	 */
+	static String name(int move)
+	{
+		String text = "" + (char)('a' + (Move.from(move) & 7)) + (char)('1' + (Move.from(move) >>> 3))
+				+ (char)('a' + (Move.to(move) & 7)) + (char)('1' + (Move.to(move) >>> 3));
+		return Move.promotion(move) == Move.NONE ? text : text + PROMOTIONS.charAt(Move.promotion(move));
+	}
+
+
+	/**
+	 * Wait for the counts of every root move
+	 */
+	private static long[] collect(List<Future<Long>> counts) throws InterruptedException, ExecutionException
+	{
+		long[] nodes = new long[counts.size()];
+		for ( int i = 0; i < nodes.length; i++ )
+		{
+			nodes[i] = counts.get(i).get();
+		}
+		return nodes;
+	}
+
+
+	private static long sum(long[] counts)
+	{
+		long sum = 0;
+		for ( long count : counts )
+		{
+			sum += count;
+		}
+		return sum;
+	}
+
+
+	private static long perSecond(long nodes, long nanos)
+	{
+		return nanos == 0 ? 0 : nodes * 1000000000L / nanos;
+	}
+}
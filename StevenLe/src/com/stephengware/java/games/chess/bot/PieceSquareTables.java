@@ -0,0 +1,169 @@
+package com.stephengware.java.games.chess.bot;
+
+/**
+ * Piece-square tables: the positional value of every piece code on every square
+ *
+ * There are two tables, one for the middlegame and one for the endgame, and the value
+ * of a piece slides from one to the other as the game goes on. Both are filled once from
+ * the rank and file rules the bot has always used, so evaluating a piece is a table lookup
+ * instead of a series of String comparisons.
+ *
+ * Values are stored as ints, multiplied by SCALE; divide by SCALE to get
+ * the same unit as the material scores.
+ *
+ * @author Hung L. Le
+ */
+public final class PieceSquareTables {
+
+	/** the table values are the positional factors multiplied by SCALE */
+	public static final int SCALE = 100;
+
+	/** up to this turn, only the middlegame table is used */
+	private static final int PHASE_START = 30;
+
+	/** from this turn on, only the endgame table is used */
+	private static final int PHASE_END = 80;
+
+	/** the number of phase steps between the middlegame and the endgame */
+	public static final int PHASE_RANGE = PHASE_END - PHASE_START;
+
+	/** the middlegame values, indexed by piece code and square */
+	private static final int[][] MIDDLEGAME = new int[12][64];
+
+	/** the endgame values, indexed by piece code and square */
+	private static final int[][] ENDGAME = new int[12][64];
+
+	static
+	{
+		for ( int code = 0; code < 12; code++ )
+		{
+			int type = Bitboards.type(code);
+			boolean white = code < Bitboards.BLACK_OFFSET;
+
+			for ( int square = 0; square < 64; square++ )
+			{
+				int file = square & 7;
+
+				// the rank as seen from the piece's own side of the board
+				int rank = white ? (square >>> 3) : 7 - (square >>> 3);
+
+				MIDDLEGAME[code][square] = (int) Math.round(SCALE * (rankFactor(type, rank, 0) + fileFactor(type, file)));
+				ENDGAME[code][square] = (int) Math.round(SCALE * (rankFactor(type, rank, PHASE_END) + fileFactor(type, file)));
+			}
+		}
+	}
+
+
+	private PieceSquareTables() {
+		// static methods only
+	}
+
+
+	/**
+	 * @param turn - the turn of the state being evaluated
+	 * @return how far the game is into the endgame, 0 - PHASE_RANGE
+	 */
+	public static int phase(int turn)
+	{
+		return Math.min(PHASE_RANGE, Math.max(0, turn - PHASE_START));
+	}
+
+
+	/**
+	 * @param code - the piece code
+	 * @param square - the square the piece stands on
+	 * @return the middlegame value of the piece, multiplied by SCALE
+	 */
+	public static int middlegame(int code, int square)
+	{
+		return MIDDLEGAME[code][square];
+	}
+
+
+	/**
+	 * @param code - the piece code
+	 * @param square - the square the piece stands on
+	 * @return the endgame value of the piece, multiplied by SCALE
+	 */
+	public static int endgame(int code, int square)
+	{
+		return ENDGAME[code][square];
+	}
+
+
+	/**
+	 * Blend middlegame and endgame values, of one piece or summed over many
+	 *
+	 * @param middlegame - the middlegame value, multiplied by SCALE
+	 * @param endgame - the endgame value, multiplied by SCALE
+	 * @param phase - the phase returned by phase()
+	 * @return the positional value, in the same unit as the material scores
+	 */
+	public static double blend(int middlegame, int endgame, int phase)
+	{
+		return (double) (middlegame * (PHASE_RANGE - phase) + endgame * phase) / (PHASE_RANGE * SCALE);
+	}
+
+
+	/**
+	 * the value of a piece with respect to its rank at a given turn
+	 * only used to fill the tables
+	 *
+	 * @param type - the piece type
+	 * @param rank - the rank, as seen from the piece's own side
+	 * @param turn
+	 * @return the value of a piece with respect to its rank
+	 */
+	private static double rankFactor(int type, int rank, int turn)
+	{
+		double rankFactor = 0.0;
+
+		// For the king, position in lower ranks is preferred
+		if ( type == Bitboards.KING )
+		{
+			if ( turn < 50 )
+				rankFactor = -(double)rank/3.0;
+		}
+
+		// Pawns usually better off moving forward
+		if ( type == Bitboards.PAWN )
+		{
+			if ( turn < 30)
+				rankFactor += rank <= 4 ? ((double) rank) : 4.0;
+			// toward the end of the game, move forward more aggressively
+			else
+			{
+				rankFactor += (double) rank;
+			}
+		}
+
+		// For other pieces
+		else
+		{
+			// position in the middle field is preferred
+			if ( turn < 35)
+				rankFactor += rank <= 3 ? ((double) rank) : 3.0;
+		}
+
+		// as the game comes to the end, rankFactor becomes directly proportional with the turn
+		return rankFactor * (turn > 40 ? (double)turn/20.0: 1.0 ) ;
+	}
+
+
+	/**
+	 * the value of a piece with respect to its file
+	 * only used to fill the tables
+	 *
+	 * @param type - the piece type
+	 * @param file
+	 * @return the value of a piece with respect to its file
+	 */
+	private static double fileFactor(int type, int file)
+	{
+		// Cornered knights and bishops are undesired
+		if ( (type == Bitboards.KNIGHT || type == Bitboards.BISHOP) && (file == 0 || file == 7) )
+			return -2.0;
+
+		return 0.0;
+	}
+}
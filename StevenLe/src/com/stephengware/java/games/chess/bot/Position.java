@@ -0,0 +1,463 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Arrays;
+
+import com.stephengware.java.games.chess.state.Player;
+import com.stephengware.java.games.chess.state.State;
+
+/**
+ * A position which changes in place as moves are made and unmade, without creating any State
+ *
+ * Every state the game makes copies the whole board, then walks back through every state
+ * before it to count itself against the search limit. The quiescence search makes far more
+ * positions than the rest of the search, so it starts from a node of the tree once, copies
+ * its bitboards here, and makes and unmakes the captures on them instead.
+ *
+ * The moves are those of the MoveGenerator, packed as in Move. What the generator leaves to the game is decided
+ * here, the way the game decides it:
+ *
+ * en passant - a pawn may only take the enemy pawn beside it if that square was empty before the last move
+ * castling - the King two squares towards an unmoved Rook, which goes to file d or f,
+ *            allowed when the King is not attacked afterwards: the game does not look at
+ *            the squares the King stands on or passes through before that. Which Rooks are
+ *            unmoved is the game's own reckoning, see Bitboards.afterCapture(). Perft checks all of it.
+ * movesUntilDraw - back to 100 after a capture, one less after any other move
+ * over - no legal move left, or no move left until the draw; a position repeated three times is
+ *        not looked for below the node the position started from, a capture cannot repeat a position
+ *
+ * Each ply keeps what its move changed, so unmake() can put it back.
+ * Every line of search has its own position, see SearchContext.
+ *
+ * @author Hung L. Le
+ */
+public class Position {
+
+	/** the bitboards of the position, changed in place */
+	private final Bitboards boards = new Bitboards();
+
+	/** the node the position started from, ply 0 */
+	private GameTree root;
+
+	/** the state of the root */
+	private State rootState;
+
+	/** the number of moves made since the root */
+	private int ply = 0;
+
+	/** the moves that led to each ply, and what they captured (-1 for nothing) and where */
+	private int[] moves = new int[32];
+	private int[] captured = new int[32];
+	private int[] capturedSquares = new int[32];
+
+	/** the unmoved squares of each ply */
+	private long[] unmoved = new long[32];
+
+	/** the squares of each ply which were empty before its move, where en passant may take a pawn */
+	private long[] arrived = new long[32];
+
+	/** the moves left until the draw at each ply */
+	private int[] movesUntilDraw = new int[32];
+
+	/** true at each ply where the player to move is in check */
+	private boolean[] check = new boolean[32];
+
+	/** scratch list, to find out whether any move is left */
+	private final int[] scratch = new int[MoveGenerator.MAX_MOVES];
+
+
+	/**
+	 * Start from a node of the tree, dropping the moves made before
+	 *
+	 * @param node - the node to copy
+	 */
+	public void reset(GameTree node)
+	{
+		State state = node.getState();
+		this.root = node;
+		this.rootState = state;
+		this.ply = 0;
+
+		this.boards.copy(node.getBitboards());
+		this.moves[0] = Move.NULL;
+		this.captured[0] = -1;
+		this.unmoved[0] = this.boards.unmoved;
+		this.movesUntilDraw[0] = state.movesUntilDraw;
+		this.check[0] = state.check;
+
+		Bitboards previous = node.getPreviousBitboards();
+		this.arrived[0] = previous == null ? 0L : this.boards.occupied & ~previous.occupied;
+	}
+
+
+	/**
+	 * @return the bitboards of the position, only good until the next move is made or unmade
+	 */
+	public Bitboards getBitboards()
+	{
+		return this.boards;
+	}
+
+
+	/**
+	 * @return the player to move
+	 */
+	public Player getPlayer()
+	{
+		return (this.ply & 1) == 0 ? this.rootState.player : this.rootState.player.other();
+	}
+
+
+	/**
+	 * @return the turn of the game the position is at, as State.turn counts it: one more each time White is to move
+	 */
+	public int getTurn()
+	{
+		int blackFirst = this.rootState.player == Player.BLACK ? 1 : 0;
+		return this.rootState.turn + (this.ply + blackFirst) / 2;
+	}
+
+
+	/**
+	 * @return the distance of the position from the root of the search, for its list in a MoveStack
+	 */
+	public int getLevel()
+	{
+		return this.root.getLevel() + this.ply;
+	}
+
+
+	/**
+	 * @return true if the player to move is in check
+	 */
+	public boolean isCheck()
+	{
+		return this.check[this.ply];
+	}
+
+
+	/**
+	 * @return the number of moves left until the game is a draw
+	 */
+	public int getMovesUntilDraw()
+	{
+		return this.movesUntilDraw[this.ply];
+	}
+
+
+	/**
+	 * @return true if the game is over: check mate, stale mate, or a draw
+	 */
+	public boolean isOver()
+	{
+		if ( this.ply == 0 )
+			return this.rootState.over;
+		if ( this.movesUntilDraw[this.ply] == 0 )
+			return true;
+
+		return this.generateTactical(this.scratch) == 0
+				&& this.keepAllowed(this.scratch, MoveGenerator.generateQuiet(this.boards, this.getPlayer(), this.scratch)) == 0;
+	}
+
+
+	/**
+	 * @return the move that led to the position, Move.NULL if it is not known
+	 */
+	public int getLastMove()
+	{
+		return this.ply == 0 ? this.root.getMove() : this.moves[this.ply];
+	}
+
+
+	/**
+	 * @param player - either player
+	 * @return the square the player's King stood on before the last move, -1 if there is none
+	 */
+	public int previousKingSquare(Player player)
+	{
+		if ( this.ply == 0 )
+		{
+			Bitboards previous = this.root.getPreviousBitboards();
+			return previous == null ? -1 : previous.kingSquare(player);
+		}
+
+		int king = this.boards.kingSquare(player);
+		return king == Move.to(this.moves[this.ply]) ? Move.from(this.moves[this.ply]) : king;
+	}
+
+
+	/**
+	 * List the moves of the player to move
+	 *
+	 * @param moves - receives the packed moves, at least MoveGenerator.MAX_MOVES long
+	 * @return the number of moves listed
+	 */
+	public int generate(int[] moves)
+	{
+		return this.keepAllowed(moves, MoveGenerator.generate(this.boards, this.getPlayer(), moves));
+	}
+
+
+	/**
+	 * List the captures and promotions of the player to move
+	 *
+	 * @param moves - receives the packed moves, at least MoveGenerator.MAX_MOVES long
+	 * @return the number of moves listed
+	 */
+	public int generateTactical(int[] moves)
+	{
+		return this.keepAllowed(moves, MoveGenerator.generateTactical(this.boards, this.getPlayer(), moves));
+	}
+
+
+	/**
+	 * List the captures for the quiescence search, with their MVV-LVA scores.
+	 * The captures that lose material to the recaptures are left out, and so are the ones
+	 * which cannot win enough material to matter.
+	 *
+	 * @param minimumGain - the least material a capture must win to be listed
+	 * @param moves - receives the packed moves, at least MoveGenerator.MAX_MOVES long
+	 * @param scores - receives their ordering scores
+	 * @return the number of moves listed
+	 */
+	public int listCaptures(int minimumGain, int[] moves, int[] scores)
+	{
+		int count = this.generateTactical(moves);
+
+		int listed = 0;
+		for ( int i = 0; i < count; i++ )
+		{
+			int move = moves[i];
+
+			if ( MoveOrdering.gain(this.boards, move) >= minimumGain
+					&& !MoveOrdering.isLosing(this.boards, move) )
+			{
+				moves[listed] = move;
+				scores[listed] = MoveOrdering.mvvLva(this.boards, move);
+				listed++;
+			}
+		}
+		return listed;
+	}
+
+
+	/**
+	 * List every move, with the ordering scores of the search
+	 *
+	 * @param ordering - the killer, history and counter moves learned by the search
+	 * @param ply - the depth of the position in the search
+	 * @param moves - receives the packed moves, at least MoveGenerator.MAX_MOVES long
+	 * @param scores - receives their ordering scores
+	 * @return the number of moves listed
+	 */
+	public int listMoves(MoveOrdering ordering, int ply, int[] moves, int[] scores)
+	{
+		int count = this.generate(moves);
+
+		int lastMove = count > 0 ? this.getLastMove() : Move.NULL;
+		for ( int i = 0; i < count; i++ )
+		{
+			scores[i] = ordering.score(this.boards, moves[i], this.getPlayer(), ply, lastMove);
+		}
+		return count;
+	}
+
+
+	/**
+	 * Make a move listed by generate() or generateTactical()
+	 *
+	 * @param move - the packed move
+	 */
+	public void make(int move)
+	{
+		if ( this.ply + 1 == this.moves.length )
+			this.grow();
+
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int code = this.boards.pieceAt(from);
+
+		int victimSquare = to;
+		int victim = this.boards.pieceAt(to);
+		if ( victim < 0 && Bitboards.type(code) == Bitboards.PAWN && (from & 7) != (to & 7) )
+		{
+			victimSquare = Move.square(to & 7, from >>> 3); // en passant
+			victim = this.boards.pieceAt(victimSquare);
+		}
+
+		long occupied = this.boards.occupied;
+		long moved = (1L << from) | (1L << to) | (1L << victimSquare);
+
+		if ( this.isCastling(move) )
+		{
+			int rook = Move.castlingRook(move);
+			int rookCode = this.boards.pieceAt(Move.from(rook));
+			this.boards.toggle(rookCode, Move.from(rook));
+			this.boards.toggle(rookCode, Move.to(rook));
+			moved |= (1L << Move.from(rook)) | (1L << Move.to(rook));
+		}
+
+		this.boards.toggle(code, from);
+		if ( victim >= 0 )
+			this.boards.toggle(victim, victimSquare);
+		// the promotion codes are the piece types
+		this.boards.toggle(Move.promotion(move) == Move.NONE ? code : Bitboards.pieceCode(Move.promotion(move), Bitboards.player(code)), to);
+
+		int ply = ++this.ply;
+		this.moves[ply] = move;
+		this.captured[ply] = victim;
+		this.capturedSquares[ply] = victimSquare;
+		this.unmoved[ply] = this.unmoved[ply - 1] & ~moved;
+		if ( victim >= 0 )
+			this.unmoved[ply] = Bitboards.afterCapture(this.unmoved[ply], victim);
+		this.boards.unmoved = this.unmoved[ply];
+		this.arrived[ply] = this.boards.occupied & ~occupied;
+		this.movesUntilDraw[ply] = victim >= 0 ? 100 : this.movesUntilDraw[ply - 1] - 1;
+
+		Player player = this.getPlayer();
+		int king = this.boards.kingSquare(player);
+		this.check[ply] = king >= 0
+				&& (StaticExchange.attackers(this.boards, king, this.boards.occupied) & this.boards.occupiedBy(player.other())) != 0;
+	}
+
+
+	/**
+	 * Let the player to move pass, for the null move search: the board stays as it is
+	 * and the other player is to move. A pass is no move of the game, so it neither
+	 * counts towards the draw nor allows an en passant capture.
+	 */
+	public void makeNull()
+	{
+		if ( this.ply + 1 == this.moves.length )
+			this.grow();
+
+		int ply = ++this.ply;
+		this.moves[ply] = Move.NULL;
+		this.captured[ply] = -1;
+		this.capturedSquares[ply] = 0;
+		this.unmoved[ply] = this.unmoved[ply - 1];
+		this.arrived[ply] = 0L;
+		this.movesUntilDraw[ply] = this.movesUntilDraw[ply - 1];
+
+		Player player = this.getPlayer();
+		int king = this.boards.kingSquare(player);
+		this.check[ply] = king >= 0
+				&& (StaticExchange.attackers(this.boards, king, this.boards.occupied) & this.boards.occupiedBy(player.other())) != 0;
+	}
+
+
+	/**
+	 * Take back the last move made, or the last pass
+	 */
+	public void unmake()
+	{
+		int ply = this.ply--;
+		int move = this.moves[ply];
+		if ( move == Move.NULL )
+			return;
+
+		int from = Move.from(move);
+		int to = Move.to(move);
+
+		int placed = this.boards.pieceAt(to);
+		int code = Move.promotion(move) == Move.NONE ? placed : Bitboards.pieceCode(Bitboards.PAWN, Bitboards.player(placed));
+
+		this.boards.toggle(placed, to);
+		if ( this.captured[ply] >= 0 )
+			this.boards.toggle(this.captured[ply], this.capturedSquares[ply]);
+		this.boards.toggle(code, from);
+
+		if ( this.isCastling(move) )
+		{
+			int rook = Move.castlingRook(move);
+			int rookCode = this.boards.pieceAt(Move.to(rook));
+			this.boards.toggle(rookCode, Move.to(rook));
+			this.boards.toggle(rookCode, Move.from(rook));
+		}
+		this.boards.unmoved = this.unmoved[this.ply];
+	}
+
+
+	/**
+	 * Drop the moves the game would not allow, keeping the others in order
+	 */
+	private int keepAllowed(int[] moves, int count)
+	{
+		int allowed = 0;
+		for ( int i = 0; i < count; i++ )
+		{
+			int move = moves[i];
+			if ( this.isCastling(move) )
+			{
+				if ( !this.castlingLeavesKingAttacked(move) )
+					moves[allowed++] = move;
+				continue;
+			}
+
+			// en passant, only when the pawn beside came there with the last move
+			int from = Move.from(move);
+			int to = Move.to(move);
+			if ( (from & 7) != (to & 7) && (this.boards.occupied & (1L << to)) == 0
+					&& Bitboards.type(this.boards.pieceAt(from)) == Bitboards.PAWN
+					&& (this.arrived[this.ply] & (1L << Move.square(to & 7, from >>> 3))) == 0 )
+			{
+				continue;
+			}
+
+			moves[allowed++] = move;
+		}
+		return allowed;
+	}
+
+
+	/**
+	 * @return true if the King stands attacked once the castling move is made, the Rook's move included
+	 */
+	private boolean castlingLeavesKingAttacked(int move)
+	{
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int king = this.boards.pieceAt(from);
+		int rook = Move.castlingRook(move);
+		int rookCode = this.boards.pieceAt(Move.from(rook));
+
+		this.boards.toggle(king, from);
+		this.boards.toggle(king, to);
+		this.boards.toggle(rookCode, Move.from(rook));
+		this.boards.toggle(rookCode, Move.to(rook));
+
+		Player player = Bitboards.player(king);
+		boolean attacked = (StaticExchange.attackers(this.boards, to, this.boards.occupied) & this.boards.occupiedBy(player.other())) != 0;
+
+		this.boards.toggle(rookCode, Move.to(rook));
+		this.boards.toggle(rookCode, Move.from(rook));
+		this.boards.toggle(king, to);
+		this.boards.toggle(king, from);
+		return attacked;
+	}
+
+
+	/**
+	 * @return true if the move is the King's two squares along the rank
+	 */
+	private boolean isCastling(int move)
+	{
+		int from = Move.from(move);
+		return Bitboards.type(this.boards.pieceAt(from)) == Bitboards.KING && Math.abs((Move.to(move) & 7) - (from & 7)) == 2;
+	}
+
+
+	/**
+	 * double the number of plies kept
+	 */
+	private void grow()
+	{
+		int length = this.moves.length * 2;
+		this.moves = Arrays.copyOf(this.moves, length);
+		this.captured = Arrays.copyOf(this.captured, length);
+		this.capturedSquares = Arrays.copyOf(this.capturedSquares, length);
+		this.unmoved = Arrays.copyOf(this.unmoved, length);
+		this.arrived = Arrays.copyOf(this.arrived, length);
+		this.movesUntilDraw = Arrays.copyOf(this.movesUntilDraw, length);
+		this.check = Arrays.copyOf(this.check, length);
+	}
+}
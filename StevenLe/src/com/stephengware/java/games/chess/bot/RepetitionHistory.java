@@ -0,0 +1,188 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.stephengware.java.games.chess.state.Piece;
+import com.stephengware.java.games.chess.state.Player;
+import com.stephengware.java.games.chess.state.State;
+
+/**
+ * Keeps track of the positions that have occurred, to detect draws by threefold repetition
+ *
+ * The history is a stack of 64 bit board hashes: first the positions of the game so far,
+ * then the positions on the path the search is currently exploring.
+ * Like the game itself, only the pieces on the board are compared, not the side to move.
+ *
+ * A capture or a Pawn's move can never be undone, so a position can only repeat one of the
+ * positions since the last of them. Each entry remembers where that was, and State.movesUntilDraw
+ * bounds it by the last capture, hence a check looks at no more than 100 entries and creates
+ * no objects. Every entry is looked at, not every other one: the game compares the boards
+ * alone, and a board may repeat with the other side to move (a King triangulating while
+ * the other side moves back and forth).
+ *
+ * @author Hung L. Le
+ */
+public class RepetitionHistory {
+
+	/** the number of moves without capture before the game is drawn */
+	private static final int DRAW_MOVES = 100;
+
+	/** the board hashes, oldest first */
+	private long[] hashes = new long[256];
+
+	/** for each hash, the index of the oldest position it may repeat: the one after the last capture or Pawn's move */
+	private int[] floors = new int[256];
+
+	/** the number of hashes in the stack */
+	private int size = 0;
+
+
+	/**
+	 * Constructs an empty history
+	 */
+	public RepetitionHistory() {
+	}
+
+
+	/**
+	 * Constructs a copy of another history, for a search continuing on another thread
+	 *
+	 * @param other - the history to copy
+	 */
+	public RepetitionHistory(RepetitionHistory other) {
+		this.hashes = Arrays.copyOf(other.hashes, other.hashes.length);
+		this.floors = Arrays.copyOf(other.floors, other.floors.length);
+		this.size = other.size;
+	}
+
+
+	/**
+	 * Replace the history with the positions of the game leading to a given state
+	 * the given state itself is included
+	 *
+	 * @param state - the current state of the game
+	 */
+	public void reset(State state)
+	{
+		// the positions since the last capture, no more than the game has had
+		int count = 0;
+		for ( State previous = state; previous != null && count <= DRAW_MOVES - state.movesUntilDraw; previous = previous.previous )
+		{
+			count++;
+		}
+		this.size = 0;
+		this.ensureCapacity(count);
+
+		// fill them in newest first, the floors are set once the Pawn moves are known
+		long pawns = 0L;
+		int floor = 0;
+		State previous = state;
+		for ( int i = count - 1; i >= 0; i--, previous = previous.previous )
+		{
+			long hash = previous.player == Player.BLACK ? Zobrist.BLACK_TO_MOVE : 0L;
+			long pawnHash = 0L;
+			Iterator<Piece> pieces = previous.board.iterator();
+			while ( pieces.hasNext() )
+			{
+				Piece piece = pieces.next();
+				int code = Bitboards.pieceCode(piece);
+				long key = Zobrist.key(code, Move.square(piece.file, piece.rank));
+				hash ^= key;
+				if ( Bitboards.type(code) == Bitboards.PAWN )
+					pawnHash ^= key;
+			}
+			this.hashes[i] = boardHash(hash, previous);
+
+			// a Pawn moved between this position and the next one
+			if ( i < count - 1 && pawnHash != pawns && floor == 0 )
+				floor = i + 1;
+			pawns = pawnHash;
+		}
+		for ( int i = 0; i < count; i++ )
+		{
+			this.floors[i] = Math.min(i, floor);
+		}
+		this.size = count;
+	}
+
+
+	/**
+	 * Add a position to the top of the stack
+	 *
+	 * @param boardHash - the hash of the position's board
+	 * @param irreversible - true if the move that led to the position was a capture or a Pawn's move
+	 */
+	public void push(long boardHash, boolean irreversible)
+	{
+		this.ensureCapacity(this.size + 1);
+		this.floors[this.size] = irreversible || this.size == 0 ? this.size : this.floors[this.size - 1];
+		this.hashes[this.size++] = boardHash;
+	}
+
+
+	/**
+	 * Grow the stack to hold a number of hashes, keeping those it has
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if ( capacity > this.hashes.length )
+		{
+			int length = Math.max(capacity, this.hashes.length * 2);
+			this.hashes = Arrays.copyOf(this.hashes, length);
+			this.floors = Arrays.copyOf(this.floors, length);
+		}
+	}
+
+
+	/**
+	 * Remove the position at the top of the stack
+	 */
+	public void pop()
+	{
+		this.size--;
+	}
+
+
+	/**
+	 * Check whether reaching a position draws the game by threefold repetition
+	 * i.e. the same board has already occurred twice since the last capture or Pawn's move
+	 *
+	 * @param boardHash - the hash of the position's board
+	 * @param movesUntilDraw - the position's State.movesUntilDraw
+	 * @param irreversible - true if the move that led to the position was a capture or a Pawn's move
+	 * @return true if the position is a draw by repetition
+	 */
+	public boolean isRepetition(long boardHash, int movesUntilDraw, boolean irreversible)
+	{
+		if ( irreversible || this.size == 0 )
+		{
+			return false;
+		}
+		int oldest = Math.max(this.floors[this.size - 1], this.size - (DRAW_MOVES - movesUntilDraw));
+		int occurrences = 0;
+
+		for ( int i = this.size - 1; i >= oldest; i-- )
+		{
+			if ( this.hashes[i] == boardHash && ++occurrences == 2 )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Remove the side to move from a state's Zobrist hash, leaving only the board
+	 *
+	 * @param hash - the Zobrist hash of the state
+	 * @param state - the state
+	 * @return the hash of the board alone
+	 */
+	public static long boardHash(long hash, State state)
+	{
+		return state.player == Player.BLACK ? hash ^ Zobrist.BLACK_TO_MOVE : hash;
+	}
+}
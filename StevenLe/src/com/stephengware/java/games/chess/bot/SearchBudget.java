@@ -0,0 +1,186 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.stephengware.java.games.chess.Settings;
+
+/**
+ * Keeps count of the states generated during the search of one move
+ *
+ * The game allows Settings.SEARCH_LIMIT states per move and ends the game with an
+ * exception beyond that. Every state is charged to the budget as it is generated,
+ * so checking the budget costs one comparison instead of asking the root state.
+ *
+ * The quiescence search makes its moves on a Position and generates no state, so it is not
+ * charged. Its positions are counted on their own instead: once they reach their share of the budget,
+ * the quiescence search stands pat, so it can never eat up the time the main search needs
+ * to complete an iteration.
+ *
+ * The evaluations of the leaves are counted too, and how many of them stopped early because
+ * the value was known to be outside the window, see the lazy evaluation of MyBot.
+ *
+ * One budget may be shared by the threads of a young brothers wait search, hence the counts are atomic.
+ *
+ * @author Hung L. Le
+ */
+public class SearchBudget {
+
+	/** states kept in reserve, for the few states generated between two checks */
+	private static final int RESERVE = 100;
+
+	/** the share of the budget the quiescence search may use */
+	private static final double QUIESCENCE_SHARE = 0.5;
+
+	/** the number of states the search may generate */
+	private final int limit;
+
+	/** the number of states generated so far */
+	private final AtomicInteger used = new AtomicInteger();
+
+	/** the number of positions of the quiescence search */
+	private final AtomicInteger quiescence = new AtomicInteger();
+
+	/** the number of leaves evaluated */
+	private final LongAdder evaluations = new LongAdder();
+
+	/** the number of those evaluations that stopped before the potential factors */
+	private final LongAdder earlyExits = new LongAdder();
+
+	/** set when the search of this move is over, before the budget is spent */
+	private volatile boolean stopped;
+
+
+	/**
+	 * Constructs a budget of Settings.SEARCH_LIMIT states per move
+	 */
+	public SearchBudget() {
+		this(Settings.SEARCH_LIMIT - RESERVE);
+	}
+
+
+	/**
+	 * Constructs a budget with a given limit
+	 *
+	 * @param limit - the number of states the search may generate
+	 */
+	public SearchBudget(int limit) {
+		this.limit = limit;
+	}
+
+
+	/**
+	 * Start counting from zero, called before the search of every move
+	 */
+	public void start()
+	{
+		this.used.set(0);
+		this.quiescence.set(0);
+		this.evaluations.reset();
+		this.earlyExits.reset();
+		this.stopped = false;
+	}
+
+
+	/**
+	 * End the search of this move, every search using the budget sees it as exhausted
+	 */
+	public void stop()
+	{
+		this.stopped = true;
+	}
+
+
+	/**
+	 * Count one generated state
+	 */
+	public void charge()
+	{
+		this.used.incrementAndGet();
+	}
+
+
+	/**
+	 * Count one position of the quiescence search
+	 */
+	public void countQuiescence()
+	{
+		this.quiescence.incrementAndGet();
+	}
+
+
+	/**
+	 * Count one evaluated leaf
+	 *
+	 * @param early - true if the evaluation stopped early, outside the window
+	 */
+	public void countEvaluation(boolean early)
+	{
+		this.evaluations.increment();
+		if ( early )
+			this.earlyExits.increment();
+	}
+
+
+	/**
+	 * @return true if the search may not generate any more states
+	 */
+	public boolean exhausted()
+	{
+		return this.stopped || this.used.get() >= this.limit;
+	}
+
+
+	/**
+	 * @return true if the quiescence search has used up its share of the budget
+	 */
+	public boolean quiescenceExhausted()
+	{
+		return this.quiescence.get() >= this.limit * QUIESCENCE_SHARE;
+	}
+
+
+	/**
+	 * @return the number of states generated since start()
+	 */
+	public int used()
+	{
+		return this.used.get();
+	}
+
+
+	/**
+	 * @return the number of positions of the quiescence search since start()
+	 */
+	public int quiescence()
+	{
+		return this.quiescence.get();
+	}
+
+
+	/**
+	 * @return the number of leaves evaluated since start()
+	 */
+	public long evaluations()
+	{
+		return this.evaluations.sum();
+	}
+
+
+	/**
+	 * @return the number of those evaluations that stopped early, outside the window
+	 */
+	public long earlyExits()
+	{
+		return this.earlyExits.sum();
+	}
+
+
+	/**
+	 * @return the number of states the search may still generate
+	 */
+	public int remaining()
+	{
+		return Math.max(0, this.limit - this.used.get());
+	}
+}
@@ -0,0 +1,80 @@
+package com.stephengware.java.games.chess.bot;
+
+/**
+ * Everything that changes as one line of search moves along a path of the tree
+ *
+ * A serial search uses a single context. When the search splits, every sibling searched
+ * on another thread gets its own copy, so no two threads ever write the same context.
+ *
+ * history - the positions of the game and of the path, used to detect draws
+ * accumulator - the material and position sums along the path
+ * moveStack - the move lists of the nodes on the path
+ * position - the position the quiescence search makes its moves on
+ * totalExtraFactor - scratch value of the evaluation in progress
+ * repetitions - the number of draws by repetition this line of search has run into
+ * splitPoint - the split this line of search belongs to, null if it belongs to none
+ *
+ * @author Hung L. Le
+ */
+public class SearchContext {
+
+	/** the positions of the game so far and of the path being searched */
+	public final RepetitionHistory history;
+
+	/** the material and position sums along the path being searched */
+	public final EvalAccumulator accumulator;
+
+	/** the move lists of the nodes on the path being searched */
+	public final MoveStack moveStack;
+
+	/** the position below the depth limit, set to each node the quiescence search starts from */
+	public final Position position;
+
+	/** the total of factors considered other than material score */
+	public double totalExtraFactor;
+
+	/**
+	 * the number of draws by repetition this line of search has run into
+	 * a node whose search runs into one has a value that depends on the path to it
+	 */
+	public int repetitions;
+
+	/** the split this line of search belongs to, null if it belongs to none */
+	public final SplitPoint splitPoint;
+
+
+	/**
+	 * Constructs the context of a search starting at the root
+	 */
+	public SearchContext() {
+		this.history = new RepetitionHistory();
+		this.accumulator = new EvalAccumulator();
+		this.moveStack = new MoveStack();
+		this.position = new Position();
+		this.splitPoint = null;
+	}
+
+
+	/**
+	 * Constructs a copy of another context, for a sibling searched at a split point
+	 *
+	 * @param other - the context of the node that splits
+	 * @param splitPoint - the split the sibling belongs to
+	 */
+	public SearchContext(SearchContext other, SplitPoint splitPoint) {
+		this.history = new RepetitionHistory(other.history);
+		this.accumulator = new EvalAccumulator(other.accumulator);
+		this.moveStack = new MoveStack(); // the lists of the nodes down to the split stay in the stack of the line that split
+		this.position = new Position();
+		this.splitPoint = splitPoint;
+	}
+
+
+	/**
+	 * @return true if a split point this line of search belongs to has been cut off
+	 */
+	public boolean cancelled()
+	{
+		return this.splitPoint != null && this.splitPoint.cancelled();
+	}
+}
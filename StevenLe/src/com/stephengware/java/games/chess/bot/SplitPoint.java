@@ -0,0 +1,147 @@
+package com.stephengware.java.games.chess.bot;
+
+/**
+ * A node whose remaining children are searched in parallel ("young brothers wait")
+ *
+ * The eldest child of the node is searched first, on its own, to get a good bound.
+ * The younger siblings are then searched at the same time, and each reports its value here.
+ * The bound only ever gets better, so a sibling starting late searches with a narrower window.
+ * Once a sibling's value cuts the node off, the split point is marked, and every search
+ * below it stops as soon as it notices.
+ *
+ * @author Hung L. Le
+ */
+public class SplitPoint {
+
+	/** the split point of an ancestor node, null if there is none */
+	private final SplitPoint parent;
+
+	/** true if the node looks for the child with the highest value, as in findMax */
+	private final boolean maximizing;
+
+	/** the window of the node, narrowed as siblings report */
+	private double alpha;
+	private double beta;
+
+	/** the best value reported so far, and the child it came from */
+	private double best;
+	private GameTree bestChild;
+
+	/** the draws by repetition the siblings' searches have run into */
+	private int repetitions = 0;
+
+	/** set when a sibling's value cuts the node off */
+	private volatile boolean cutoff = false;
+
+
+	/**
+	 * Constructs a split point after the eldest child has been searched
+	 *
+	 * @param parent - the split point the node's search belongs to, null if none
+	 * @param maximizing - true for a node of findMax, false for findMin
+	 * @param alpha - the node's alpha, after the eldest child
+	 * @param beta - the node's beta, after the eldest child
+	 * @param best - the value of the eldest child
+	 * @param bestChild - the eldest child
+	 */
+	public SplitPoint(SplitPoint parent, boolean maximizing, double alpha, double beta, double best, GameTree bestChild) {
+		this.parent = parent;
+		this.maximizing = maximizing;
+		this.alpha = alpha;
+		this.beta = beta;
+		this.best = best;
+		this.bestChild = bestChild;
+	}
+
+
+	/**
+	 * Report the value of a sibling, once its search is complete
+	 *
+	 * @param child - the sibling
+	 * @param value - the value of the sibling
+	 * @param repetitions - the draws by repetition the sibling's search has run into
+	 */
+	public synchronized void report(GameTree child, double value, int repetitions)
+	{
+		this.repetitions += repetitions;
+		if ( this.maximizing )
+		{
+			if ( value > this.best )
+			{
+				this.best = value;
+				this.bestChild = child;
+			}
+			if ( this.best >= this.beta )
+				this.cutoff = true;
+			this.alpha = Math.max(this.alpha, this.best);
+		}
+		else
+		{
+			if ( value < this.best )
+			{
+				this.best = value;
+				this.bestChild = child;
+			}
+			if ( this.best <= this.alpha )
+				this.cutoff = true;
+			this.beta = Math.min(this.beta, this.best);
+		}
+	}
+
+
+	/**
+	 * @return true if this node or one of its ancestors has been cut off
+	 */
+	public boolean cancelled()
+	{
+		for ( SplitPoint split = this; split != null; split = split.parent )
+		{
+			if ( split.cutoff )
+				return true;
+		}
+		return false;
+	}
+
+
+	/** @return true for a node of findMax, false for findMin */
+	public boolean isMaximizing()
+	{
+		return this.maximizing;
+	}
+
+	/** @return true if a sibling's value cut this node off */
+	public boolean isCutoff()
+	{
+		return this.cutoff;
+	}
+
+	/** @return the current alpha of the node */
+	public synchronized double alpha()
+	{
+		return this.alpha;
+	}
+
+	/** @return the current beta of the node */
+	public synchronized double beta()
+	{
+		return this.beta;
+	}
+
+	/** @return the best value reported so far */
+	public synchronized double best()
+	{
+		return this.best;
+	}
+
+	/** @return the draws by repetition the reported siblings' searches have run into */
+	public synchronized int repetitions()
+	{
+		return this.repetitions;
+	}
+
+	/** @return the child with the best value reported so far */
+	public synchronized GameTree bestChild()
+	{
+		return this.bestChild;
+	}
+}
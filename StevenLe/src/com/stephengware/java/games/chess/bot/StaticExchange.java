@@ -0,0 +1,171 @@
+package com.stephengware.java.games.chess.bot;
+
+import com.stephengware.java.games.chess.state.Player;
+
+/**
+ * Static exchange evaluation: what a capture wins once every piece that can take part
+ * in the fight for the target square has captured there, cheapest piece first
+ *
+ * Either side may stop capturing as soon as going on would lose material, so the value
+ * is worked out backwards from the last capture. Pieces behind the capturing ones
+ * (a Rook behind a Rook, a Queen behind a Bishop) join the fight once the way is clear.
+ * Nothing is checked about pins or checks, which is what keeps it cheap.
+ *
+ * Values are the material scores of EvalAccumulator.MATERIAL.
+ *
+ * It runs for nearly every capture the search orders, on every search thread, so the
+ * gains of the captures are worked out in an array kept by each thread instead of a new one.
+ *
+ * @author Hung L. Le
+ */
+public final class StaticExchange {
+
+	/** the longest exchange looked at */
+	private static final int MAX_CAPTURES = 32;
+
+	/** the gains of the captures of the exchange being evaluated, one array per thread */
+	private static final ThreadLocal<int[]> GAIN = ThreadLocal.withInitial(() -> new int[MAX_CAPTURES]);
+
+
+	private StaticExchange() {
+		// static methods only
+	}
+
+
+	/**
+	 * Evaluate the exchange started by a capture
+	 *
+	 * @param boards - the bitboards of the position the capture is made in
+	 * @param move - the packed move, usually a capture
+	 * @return the material won by the side making the move, negative if it loses material
+	 */
+	public static int evaluate(Bitboards boards, int move)
+	{
+		int from = Move.from(move);
+		int to = Move.to(move);
+
+		int attacker = boards.pieceAt(from);
+		if ( attacker < 0 )
+			return 0;
+
+		// the captured piece, the pawn beside the target for an en passant
+		long occupied = boards.occupied & ~(1L << from);
+		int victim = boards.pieceAt(to);
+		if ( victim < 0 && Bitboards.type(attacker) == Bitboards.PAWN && (from & 7) != (to & 7) )
+		{
+			int passed = Move.square(to & 7, from >>> 3);
+			victim = boards.pieceAt(passed);
+			occupied &= ~(1L << passed);
+		}
+
+		int[] gain = GAIN.get();
+		gain[0] = victim < 0 ? 0 : value(victim);
+
+		// the piece standing on the target square, the next one to be captured
+		int onTarget = value(attacker);
+		if ( Move.promotion(move) != Move.NONE )
+		{
+			int promoted = EvalAccumulator.MATERIAL[promotedType(move)];
+			gain[0] += promoted - EvalAccumulator.MATERIAL[Bitboards.PAWN];
+			onTarget = promoted;
+		}
+
+		Player side = Bitboards.player(attacker).other();
+		long attackers = attackers(boards, to, occupied) & occupied;
+
+		int depth = 0;
+		while ( true )
+		{
+			long own = attackers & boards.occupiedBy(side);
+			if ( own == 0 )
+				break;
+
+			// the cheapest piece captures next
+			int code = -1;
+			long bit = 0L;
+			for ( int type = Bitboards.PAWN; type <= Bitboards.KING; type++ )
+			{
+				long set = own & boards.pieces[Bitboards.pieceCode(type, side)];
+				if ( set != 0 )
+				{
+					code = Bitboards.pieceCode(type, side);
+					bit = set & -set;
+					break;
+				}
+			}
+
+			// the King may not capture onto a square the opponent still attacks
+			if ( Bitboards.type(code) == Bitboards.KING && (attackers & ~bit & boards.occupiedBy(side.other())) != 0 )
+				break;
+
+			depth++;
+			gain[depth] = onTarget - gain[depth - 1];
+			onTarget = value(code);
+
+			// the pieces behind it can now reach the square
+			occupied &= ~bit;
+			attackers = attackers(boards, to, occupied) & occupied;
+			side = side.other();
+
+			if ( depth == gain.length - 1 )
+				break;
+		}
+
+		// each side stops capturing where going on would lose
+		while ( depth > 0 )
+		{
+			gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+			depth--;
+		}
+		return gain[0];
+	}
+
+
+	/**
+	 * Find every piece of either side attacking a square
+	 *
+	 * @param boards - the bitboards of the position
+	 * @param square - the attacked square
+	 * @param occupied - the squares considered occupied, blocking the sliding pieces
+	 * @return the squares of the attacking pieces
+	 */
+	public static long attackers(Bitboards boards, int square, long occupied)
+	{
+		long queens = boards.pieces[Bitboards.QUEEN] | boards.pieces[Bitboards.QUEEN + Bitboards.BLACK_OFFSET];
+
+		return (Attacks.pawn(Player.BLACK, square) & boards.pieces[Bitboards.PAWN])
+				| (Attacks.pawn(Player.WHITE, square) & boards.pieces[Bitboards.PAWN + Bitboards.BLACK_OFFSET])
+				| (Attacks.knight(square) & (boards.pieces[Bitboards.KNIGHT] | boards.pieces[Bitboards.KNIGHT + Bitboards.BLACK_OFFSET]))
+				| (Attacks.king(square) & (boards.pieces[Bitboards.KING] | boards.pieces[Bitboards.KING + Bitboards.BLACK_OFFSET]))
+				| (Attacks.bishop(square, occupied) & (boards.pieces[Bitboards.BISHOP] | boards.pieces[Bitboards.BISHOP + Bitboards.BLACK_OFFSET] | queens))
+				| (Attacks.rook(square, occupied) & (boards.pieces[Bitboards.ROOK] | boards.pieces[Bitboards.ROOK + Bitboards.BLACK_OFFSET] | queens));
+	}
+
+
+	/**
+	 * @return the material score of a piece code
+	 */
+	private static int value(int code)
+	{
+		return EvalAccumulator.MATERIAL[Bitboards.type(code)];
+	}
+
+
+	/**
+	 * @return the piece type a promotion turns the pawn into
+	 */
+	private static int promotedType(int move)
+	{
+		switch ( Move.promotion(move) )
+		{
+			case Move.KNIGHT:
+				return Bitboards.KNIGHT;
+			case Move.BISHOP:
+				return Bitboards.BISHOP;
+			case Move.ROOK:
+				return Bitboards.ROOK;
+			default:
+				return Bitboards.QUEEN;
+		}
+	}
+}
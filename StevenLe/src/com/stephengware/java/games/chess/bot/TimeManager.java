@@ -0,0 +1,243 @@
+package com.stephengware.java.games.chess.bot;
+
+/**
+ * Decides how long the search of a move may take, on a per-move or a per-game clock
+ *
+ * Every move gets two deadlines...
+ * soft - no new iteration of the iterative deepening starts once it would end after this
+ * hard - the iteration in progress is abandoned at this time
+ *
+ * Before an iteration starts, its length is predicted from the previous iteration times
+ * the effective branching factor, i.e. how many times more nodes each iteration has needed
+ * than the one before. Alpha-beta needs far more nodes to go from an even to an odd depth
+ * than from an odd to an even one, so the factor is averaged over the last two iterations.
+ * The soft deadline moves with the search: it comes earlier while the best move stays
+ * the same, and later when the score of the best move drops.
+ *
+ * @author Hung L. Le
+ */
+public class TimeManager {
+
+	/** the time per move when no clock is given, in milliseconds */
+	private static final long DEFAULT_MOVE_TIME = 10000;
+
+	/** on a per-game clock, the number of moves the remaining time is assumed to be shared by, at least */
+	private static final int MIN_MOVES_TO_GO = 20;
+
+	/** on a per-game clock, the number of moves a game is assumed to last */
+	private static final int EXPECTED_GAME_MOVES = 60;
+
+	/** the drop of the best score, in material units, that makes the search go on longer */
+	private static final double SCORE_DROP = 5.0;
+
+	/** the number of iterations the best move must stay the same to end the search early */
+	private static final int STABLE_ITERATIONS = 2;
+
+	/** the time of the whole game, 0 for a per-move clock, in nanoseconds */
+	private final long gameTime;
+
+	/** the time of every move, on a per-move clock, in nanoseconds */
+	private final long moveTime;
+
+	/** the time already used in this game, in nanoseconds */
+	private long usedTime;
+
+	/** the turn of the last move searched, to tell when a new game begins */
+	private int lastTurn = Integer.MAX_VALUE;
+
+	/** the deadlines of the current move, from start() */
+	private long startTime;
+	private long softTime;
+	private long hardTime;
+
+	/** set once the hard deadline has passed */
+	private volatile boolean expired;
+
+	/** counts the calls to outOfTime() so the clock is read only every so often, one counter per thread */
+	private final ThreadLocal<int[]> checks = ThreadLocal.withInitial(() -> new int[1]);
+
+	/** what the finished iterations of this move have seen */
+	private int iterations;
+	private long lastIterationTime;
+	private int lastIterationNodes;
+	private int earlierIterationNodes;
+	private double branchingFactor;
+	private int bestMove;
+	private int stableIterations;
+	private double bestScore;
+	private boolean scoreDropped;
+
+
+	/**
+	 * Constructs a per-move clock
+	 *
+	 * @param moveTime - the time of every move, in milliseconds
+	 */
+	public TimeManager(long moveTime) {
+		this(0, moveTime);
+	}
+
+
+	/**
+	 * Constructs a per-game or per-move clock
+	 *
+	 * @param gameTime - the time of the whole game, in milliseconds, 0 for a per-move clock
+	 * @param moveTime - the time of every move on a per-move clock, in milliseconds
+	 */
+	public TimeManager(long gameTime, long moveTime) {
+		this.gameTime = gameTime * 1000000L;
+		this.moveTime = moveTime * 1000000L;
+	}
+
+
+	/**
+	 * Constructs the clock given on the command line...
+	 * -Dhlle.gameTime=ms for a per-game clock, otherwise -Dhlle.moveTime=ms for a per-move clock
+	 *
+	 * @return the clock, or null if the time is not limited (-Dhlle.moveTime=0)
+	 */
+	public static TimeManager fromSystemProperties()
+	{
+		long gameTime = Long.getLong("hlle.gameTime", 0L);
+		if ( gameTime > 0 )
+			return new TimeManager(gameTime, 0);
+
+		long moveTime = Long.getLong("hlle.moveTime", DEFAULT_MOVE_TIME);
+		return moveTime > 0 ? new TimeManager(moveTime) : null;
+	}
+
+
+	/**
+	 * Set the deadlines of a new move
+	 *
+	 * @param turn - the turn of the state to move from
+	 */
+	public void start(int turn)
+	{
+		this.startTime = System.nanoTime();
+
+		// the turns go back to 0 when a new game begins
+		if ( turn < this.lastTurn )
+			this.usedTime = 0L;
+		this.lastTurn = turn;
+
+		long soft;
+		long hard;
+		if ( this.gameTime > 0 )
+		{
+			// share the remaining time between the moves still to come, allowing a few times more on hard moves
+			long remaining = Math.max(0L, this.gameTime - this.usedTime);
+			int movesToGo = Math.max(MIN_MOVES_TO_GO, EXPECTED_GAME_MOVES - turn / 2);
+			soft = remaining / movesToGo;
+			hard = Math.min(soft * 4, remaining / 3);
+		}
+		else
+		{
+			soft = this.moveTime * 7 / 10;
+			hard = this.moveTime;
+		}
+
+		this.softTime = this.startTime + soft;
+		this.hardTime = this.startTime + hard;
+		this.expired = false;
+
+		this.iterations = 0;
+		this.lastIterationTime = 0L;
+		this.lastIterationNodes = 0;
+		this.earlierIterationNodes = 0;
+		this.branchingFactor = 0.0;
+		this.bestMove = Move.NULL;
+		this.stableIterations = 0;
+		this.bestScore = Double.NaN;
+		this.scoreDropped = false;
+	}
+
+
+	/**
+	 * Record the time of a move once its search is over
+	 */
+	public void stop()
+	{
+		this.usedTime += System.nanoTime() - this.startTime;
+	}
+
+
+	/**
+	 * Record a completed iteration of the iterative deepening
+	 *
+	 * @param time - how long the iteration took, in nanoseconds
+	 * @param nodes - the number of states the iteration generated
+	 * @param move - the best move found by the iteration
+	 * @param score - the value of the best move
+	 */
+	public void iterationDone(long time, int nodes, int move, double score)
+	{
+		// the geometric mean of the last two factors, once there are two
+		if ( this.iterations > 1 && this.earlierIterationNodes > 0 )
+			this.branchingFactor = Math.sqrt((double) nodes / this.earlierIterationNodes);
+		else if ( this.iterations > 0 && this.lastIterationNodes > 0 )
+			this.branchingFactor = (double) nodes / this.lastIterationNodes;
+
+		this.stableIterations = move == this.bestMove ? this.stableIterations + 1 : 0;
+		this.scoreDropped = this.iterations > 0 && score < this.bestScore - SCORE_DROP;
+
+		this.iterations++;
+		this.lastIterationTime = time;
+		this.earlierIterationNodes = this.lastIterationNodes;
+		this.lastIterationNodes = nodes;
+		this.bestMove = move;
+		this.bestScore = score;
+	}
+
+
+	/**
+	 * Decide whether the next iteration is worth starting
+	 *
+	 * @param remainingNodes - the number of states the search budget still allows
+	 * @return true if the next iteration is expected to finish within the time and the budget
+	 */
+	public boolean startNextIteration(int remainingNodes)
+	{
+		long now = System.nanoTime();
+
+		// the first iteration tells nothing about the branching factor, assume a typical one
+		double factor = this.iterations >= 2 ? Math.max(this.branchingFactor, 1.0) : 6.0;
+
+		// an iteration the budget cannot pay for would be abandoned anyway
+		if ( this.lastIterationNodes * factor > remainingNodes )
+			return false;
+
+		// end early on a stable best move, go on longer after a drop of the score
+		long soft = this.softTime - this.startTime;
+		if ( this.scoreDropped )
+			soft = this.hardTime - this.startTime;
+		else if ( this.stableIterations >= STABLE_ITERATIONS )
+			soft /= 2;
+
+		long predicted = (long) (this.lastIterationTime * factor);
+		return now - this.startTime + predicted <= soft && now + predicted <= this.hardTime;
+	}
+
+
+	/**
+	 * Check the hard deadline, cheap enough to be called at every node
+	 * and by every thread of the search: each thread reads the clock on its own count of calls,
+	 * the first one to see the deadline pass tells the others through expired
+	 *
+	 * @return true if the search must stop now
+	 */
+	public boolean outOfTime()
+	{
+		if ( this.expired )
+			return true;
+
+		// read the clock only once every 256 calls
+		if ( (++this.checks.get()[0] & 0xFF) != 0 )
+			return false;
+
+		if ( System.nanoTime() >= this.hardTime )
+			this.expired = true;
+
+		return this.expired;
+	}
+}
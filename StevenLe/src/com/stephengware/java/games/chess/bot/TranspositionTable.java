@@ -0,0 +1,197 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table which remembers the result of every searched state
+ *
+ * The table is three arrays of longs, so its memory is allocated once and never grows.
+ * Each entry is indexed by the lower bits of the Zobrist hash of a state and holds...
+ *
+ * key - the full hash XOR the data and the score, to tell different states apart when they share an index
+ * data - the searched depth, the bound type and the best move, packed into one long
+ * score - the bits of the score, the full double: the search compares values one double step apart
+ * 		(see the null windows of MyBot), so a rounded score could turn a fail-low into a fail-high
+ *
+ * When two states fall on the same index, the entry searched to the greater depth is kept,
+ * unless it was stored during the search of an earlier move.
+ *
+ * The table is kept from one move to the next: the positions searched for the last move are
+ * mostly the positions of this one, two plies deeper. Every entry remembers the search it was
+ * stored in (its generation), so the entries of old searches make way for the new ones.
+ *
+ * The table is shared by all search threads without any lock. Since the key is stored
+ * XORed with the data and the score, an entry whose parts were written by different threads
+ * no longer matches its hash and is simply treated as empty.
+ *
+ * @author Hung L. Le
+ */
+public class TranspositionTable {
+
+	/** the stored score is the exact value of the state */
+	public static final int EXACT = 1;
+
+	/** the stored score is a lower bound, i.e. the search failed high */
+	public static final int LOWER = 2;
+
+	/** the stored score is an upper bound, i.e. the search failed low */
+	public static final int UPPER = 3;
+
+	/** number of entries, a power of 2 */
+	private final int size;
+
+	/** the full hashes of the stored states, XORed with their data and score */
+	private final long[] keys;
+
+	/** the packed data of the stored states */
+	private final long[] data;
+
+	/** the scores of the stored states, as double bits */
+	private final long[] scores;
+
+	/** the generation of the current search, stored with every entry */
+	private int generation = 0;
+
+
+	/**
+	 * Constructs a table with 2^bits entries, each entry takes 24 bytes
+	 *
+	 * @param bits - the log2 of the number of entries
+	 */
+	public TranspositionTable(int bits) {
+		this.size = 1 << bits;
+		this.keys = new long[size];
+		this.data = new long[size];
+		this.scores = new long[size];
+	}
+
+
+	/**
+	 * Look up a state in the table
+	 *
+	 * @param hash - the Zobrist hash of the state
+	 * @return the packed data of the entry, or 0 if the state is not in the table
+	 */
+	public long probe(long hash)
+	{
+		int index = (int) hash & (size - 1);
+
+		long entry = data[index];
+		if ( (keys[index] ^ entry ^ scores[index]) == hash )
+			return entry;
+
+		return 0L;
+	}
+
+
+	/**
+	 * Read the score of an entry found by probe()
+	 *
+	 * @param hash - the Zobrist hash of the state
+	 * @param entry - the packed data returned by probe()
+	 * @return the score of the entry, NaN if another thread has replaced the entry since it was probed
+	 */
+	public double score(long hash, long entry)
+	{
+		int index = (int) hash & (size - 1);
+
+		long score = scores[index];
+		if ( (keys[index] ^ entry ^ score) == hash )
+			return Double.longBitsToDouble(score);
+
+		return Double.NaN;
+	}
+
+
+	/**
+	 * Store the result of searching a state
+	 *
+	 * @param hash - the Zobrist hash of the state
+	 * @param depth - the remaining depth the state was searched to
+	 * @param bound - EXACT, LOWER or UPPER
+	 * @param score - the value found by the search
+	 * @param move - the best move found, Move.NULL if none
+	 */
+	public void store(long hash, int depth, int bound, double score, int move)
+	{
+		int index = (int) hash & (size - 1);
+
+		// keep the deeper entry of another state of this search, but always replace the entry of the same state
+		long entry = data[index];
+		if ( (keys[index] ^ entry ^ scores[index]) != hash && depth(entry) > depth && generation(entry) == generation )
+			return;
+
+		entry = pack(depth, bound, move, generation);
+		long scoreBits = Double.doubleToRawLongBits(score);
+		keys[index] = hash ^ entry ^ scoreBits;
+		data[index] = entry;
+		scores[index] = scoreBits;
+	}
+
+
+	/**
+	 * Start the search of a new move, the entries stored so far become old ones
+	 * they can still be used, but are replaced by any new entry
+	 */
+	public void newSearch()
+	{
+		generation = (generation + 1) & 0x3F;
+	}
+
+
+	/**
+	 * Remove every entry from the table
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, 0L);
+		Arrays.fill(data, 0L);
+		Arrays.fill(scores, 0L);
+	}
+
+
+	/**
+	 * data layout...
+	 *
+	 * bits 0 - 31  : unused, the score is kept in its own array
+	 * bits 32 - 39 : the depth
+	 * bits 40 - 41 : the bound type (0 means empty)
+	 * bits 42 - 56 : the best move
+	 * bits 57 - 62 : the generation
+	 */
+	private static long pack(int depth, int bound, int move, int generation)
+	{
+		return ((long) (depth & 0xFF) << 32)
+				| ((long) bound << 40)
+				| ((long) (move & 0x7FFF) << 42)
+				| ((long) (generation & 0x3F) << 57);
+	}
+
+
+	/** @return the depth of the packed data */
+	public static int depth(long data)
+	{
+		return (int) (data >>> 32) & 0xFF;
+	}
+
+
+	/** @return the bound type of the packed data, 0 if the entry is empty */
+	public static int bound(long data)
+	{
+		return (int) (data >>> 40) & 0x3;
+	}
+
+
+	/** @return the best move of the packed data */
+	public static int move(long data)
+	{
+		return (int) (data >>> 42) & 0x7FFF;
+	}
+
+
+	/** @return the generation of the packed data */
+	private static int generation(long data)
+	{
+		return (int) (data >>> 57) & 0x3F;
+	}
+}
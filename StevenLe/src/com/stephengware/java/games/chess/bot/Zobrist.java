@@ -0,0 +1,189 @@
+package com.stephengware.java.games.chess.bot;
+
+import java.util.Iterator;
+
+import com.stephengware.java.games.chess.state.Piece;
+import com.stephengware.java.games.chess.state.Player;
+import com.stephengware.java.games.chess.state.State;
+
+/**
+ * Zobrist hashing of a state
+ *
+ * Every (piece, square) pair gets a random 64 bit key, the hash of a position
+ * is the XOR of the keys of all its pieces, plus one more key when Black is to move.
+ * The same position reached through different move orders always gets the same hash.
+ *
+ * The evaluation also depends on the phase of the game (see PieceSquareTables.phase()), which
+ * the board alone does not tell. The transposition table adds a phase key to the hash, so a
+ * board reached at another phase is never given a value computed for a different one.
+ * It adds the castling rights (the Kings and Rooks still on their unmoved squares) and the
+ * en passant file as well, since the same board may have other moves without them.
+ *
+ * @author Hung L. Le
+ */
+public final class Zobrist {
+
+	/** piece codes, White pieces first, then Black pieces */
+	public static final int PIECE_TYPES = 12;
+
+	/** the keys of every piece code on every square */
+	private static final long[][] PIECE_KEYS = new long[PIECE_TYPES][64];
+
+	/** the key XORed in when Black is to move */
+	public static final long BLACK_TO_MOVE;
+
+	/** the keys of every phase of the game */
+	private static final long[] PHASE_KEYS = new long[PieceSquareTables.PHASE_RANGE + 1];
+
+	/** the squares of the Kings and Rooks at the start of the game, all castling depends on */
+	private static final long CASTLING_SQUARES = (1L << Move.square(0, 0)) | (1L << Move.square(4, 0)) | (1L << Move.square(7, 0))
+			| (1L << Move.square(0, 7)) | (1L << Move.square(4, 7)) | (1L << Move.square(7, 7));
+
+	/** the keys of every square still unmoved, only those of CASTLING_SQUARES are used */
+	private static final long[] UNMOVED_KEYS = new long[64];
+
+	/** the keys of every file a Pawn can be taken en passant on */
+	private static final long[] EN_PASSANT_KEYS = new long[8];
+
+	// fill the tables with a fixed seed, so the hashes are the same on every run
+	static
+	{
+		long seed = 0x9E3779B97F4A7C15L;
+		for ( int piece = 0; piece < PIECE_TYPES; piece++ )
+		{
+			for ( int square = 0; square < 64; square++ )
+			{
+				seed = nextRandom(seed);
+				PIECE_KEYS[piece][square] = seed * 0x2545F4914F6CDD1DL;
+			}
+		}
+		seed = nextRandom(seed);
+		BLACK_TO_MOVE = seed * 0x2545F4914F6CDD1DL;
+		for ( int phase = 0; phase < PHASE_KEYS.length; phase++ )
+		{
+			seed = nextRandom(seed);
+			PHASE_KEYS[phase] = seed * 0x2545F4914F6CDD1DL;
+		}
+		for ( int square = 0; square < 64; square++ )
+		{
+			seed = nextRandom(seed);
+			UNMOVED_KEYS[square] = seed * 0x2545F4914F6CDD1DL;
+		}
+		for ( int file = 0; file < 8; file++ )
+		{
+			seed = nextRandom(seed);
+			EN_PASSANT_KEYS[file] = seed * 0x2545F4914F6CDD1DL;
+		}
+	}
+
+
+	private Zobrist() {
+		// static methods only
+	}
+
+
+	/**
+	 * Compute the hash of a state from scratch
+	 *
+	 * @param state - the state to hash
+	 * @return the 64 bit Zobrist hash of the board plus the side to move
+	 */
+	public static long hash(State state)
+	{
+		long hash = state.player == Player.BLACK ? BLACK_TO_MOVE : 0L;
+
+		Iterator<Piece> pieces = state.board.iterator();
+		while ( pieces.hasNext() )
+		{
+			Piece piece = pieces.next();
+			hash ^= PIECE_KEYS[Bitboards.pieceCode(piece)][Move.square(piece.file, piece.rank)];
+		}
+
+		return hash;
+	}
+
+
+	/**
+	 * Compute the hash of a position from its bitboards
+	 * 
+	 * @param boards - the bitboards of the position
+	 * @param player - the player to move
+	 * @return the 64 bit Zobrist hash of the board plus the side to move
+	 */
+	public static long hash(Bitboards boards, Player player)
+	{
+		long hash = player == Player.BLACK ? BLACK_TO_MOVE : 0L;
+
+		for ( int code = 0; code < PIECE_TYPES; code++ )
+		{
+			long set = boards.pieces[code];
+			while ( set != 0 )
+			{
+				hash ^= PIECE_KEYS[code][Long.numberOfTrailingZeros(set)];
+				set &= set - 1;
+			}
+		}
+
+		return hash;
+	}
+
+
+	/**
+	 * @param pieceCode - the code of the piece
+	 * @param square - the square the piece stands on
+	 * @return the key of this piece on this square
+	 */
+	public static long key(int pieceCode, int square)
+	{
+		return PIECE_KEYS[pieceCode][square];
+	}
+
+
+	/**
+	 * @param phase - the phase of the game, see PieceSquareTables.phase()
+	 * @return the key of this phase
+	 */
+	public static long phaseKey(int phase)
+	{
+		return PHASE_KEYS[phase];
+	}
+
+
+	/**
+	 * @param unmoved - the unmoved squares, see Bitboards.unmoved
+	 * @return the key of the castling rights: the Kings and Rooks still on their unmoved squares
+	 */
+	public static long castlingKey(long unmoved)
+	{
+		long key = 0L;
+		long set = unmoved & CASTLING_SQUARES;
+		while ( set != 0 )
+		{
+			key ^= UNMOVED_KEYS[Long.numberOfTrailingZeros(set)];
+			set &= set - 1;
+		}
+		return key;
+	}
+
+
+	/**
+	 * @param file - the file a Pawn can be taken en passant on, -1 if there is none
+	 * @return the key of the en passant file, 0 if there is none
+	 */
+	public static long enPassantKey(int file)
+	{
+		return file < 0 ? 0L : EN_PASSANT_KEYS[file];
+	}
+
+
+	/**
+	 * xorshift64 step, used only to fill the key tables
+	 */
+	private static long nextRandom(long x)
+	{
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		return x;
+	}
+}